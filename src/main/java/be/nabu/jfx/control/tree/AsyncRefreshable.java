@@ -0,0 +1,34 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+/**
+ * A tree item whose refresh can be split in a slow part that runs in the background and a fast part that runs on the fx thread
+ * With asynchronous refreshes, only items that implement this interface are refreshed in the background, others are refreshed on the fx thread
+ */
+public interface AsyncRefreshable<P> {
+	/**
+	 * This is called outside of the fx thread, it should gather whatever the refresh needs without modifying the item (or anything else that is observed)
+	 */
+	public P prepareRefresh(boolean hard);
+	
+	/**
+	 * This is called on the fx thread with the result of prepareRefresh(), this is where the item is actually updated
+	 */
+	public void applyRefresh(P prepared, boolean hard);
+}
@@ -0,0 +1,33 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.List;
+
+/**
+ * A tree item whose children are slow to load
+ * The children are loaded in the background when the cell is expanded, until then a placeholder is shown
+ * If the cell is collapsed before the children are loaded, the load is cancelled
+ */
+public interface AsyncTreeItem<T> extends TreeItem<T> {
+	/**
+	 * This is called outside of the fx thread, the tree will set the result as the children of the item
+	 * Unchanged children (according to equals) are retained
+	 */
+	public List<TreeItem<T>> loadChildren();
+}
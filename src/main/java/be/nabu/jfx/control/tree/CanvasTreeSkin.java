@@ -0,0 +1,239 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+import javafx.event.EventHandler;
+import javafx.geometry.Bounds;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.image.Image;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.paint.Color;
+import javafx.scene.paint.Paint;
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+/**
+ * Paints the rows in the viewport onto a single canvas instead of adding a node per row to the scene graph
+ * Each row consists of the indentation, the icon and the marshalled value of the item, custom cell values and graphics are not rendered
+ * 
+ * The canvas only covers the viewport, mouse events on it are mapped to the cell in that row so selection, expansion, context menus and dragging keep working
+ * Keyboard events on the tree are passed to the last selected cell
+ */
+public class CanvasTreeSkin<T> extends VirtualTreeSkin<T> {
+
+	private Canvas canvas = new Canvas();
+	private Text measurer = new Text();
+	
+	private Paint selectionFill = Color.web("#cccccc"), textFill = Color.BLACK;
+	private Font font = Font.getDefault();
+	// the space between the icon and the text
+	private double gap = 3;
+	// the widest row that was painted, this is the preferred width of the tree
+	private double paintedWidth;
+	
+	/**
+	 * The items that were painted in the last pass, we listen to their values
+	 */
+	private Set<TreeItem<T>> painted = Collections.newSetFromMap(new IdentityHashMap<TreeItem<T>, Boolean>());
+	
+	private InvalidationListener repaintListener = new InvalidationListener() {
+		@Override
+		public void invalidated(Observable observable) {
+			getSkinnable().requestLayout();
+		}
+	};
+	
+	private ListChangeListener<TreeCell<T>> selectionListener = new ListChangeListener<TreeCell<T>>() {
+		@Override
+		public void onChanged(ListChangeListener.Change<? extends TreeCell<T>> change) {
+			getSkinnable().requestLayout();
+		}
+	};
+	
+	private EventHandler<KeyEvent> keyHandler = new EventHandler<KeyEvent>() {
+		@Override
+		public void handle(KeyEvent event) {
+			List<TreeCell<T>> selected = getSkinnable().getSelectionModel().getSelectedItems();
+			if (!event.isConsumed() && !selected.isEmpty()) {
+				selected.get(selected.size() - 1).handleKey(event);
+			}
+		}
+	};
+	
+	public CanvasTreeSkin(Tree<T> tree) {
+		super(tree);
+		initialize();
+	}
+
+	private void initialize() {
+		final Tree<T> tree = getSkinnable();
+		getChildren().add(canvas);
+		tree.getSelectionModel().getSelectedItems().addListener(selectionListener);
+		tree.addEventHandler(KeyEvent.KEY_PRESSED, keyHandler);
+		canvas.addEventHandler(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
+			@Override
+			public void handle(MouseEvent event) {
+				TreeCell<T> cell = tree.getCellAtY(event.getY() + canvas.getLayoutY());
+				if (cell != null && !event.isConsumed()) {
+					// toggle expanded if you click on the icon
+					double x = event.getX() + canvas.getLayoutX() - tree.snappedLeftInset() - (cell.getIndent() * tree.spacingProperty().get());
+					Image icon = tree.getIconSet().getIcon(cell.getItem(), cell.expandedProperty().get());
+					if (icon != null && x >= 0 && x < icon.getWidth() && !cell.getItem().leafProperty().get()) {
+						cell.expandedProperty().set(!cell.expandedProperty().get());
+						event.consume();
+					}
+					else {
+						cell.handleClick(event);
+					}
+				}
+			}
+		});
+	}
+
+	@Override
+	protected void layoutChildren(double contentX, double contentY, double contentWidth, double contentHeight) {
+		double rowHeight = getSkinnable().rowHeightProperty().get();
+		int overscan = getSkinnable().getOverscan();
+		Bounds viewport = getViewport();
+		canvas.relocate(Math.floor(viewport.getMinX()), Math.floor(viewport.getMinY()));
+		canvas.setWidth(Math.ceil(viewport.getWidth()));
+		canvas.setHeight(Math.ceil(viewport.getHeight()));
+		int first = Math.max(0, (int) Math.floor((canvas.getLayoutY() - contentY) / rowHeight));
+		// the overscan is loaded but only the viewport is painted
+		syncRows(Math.max(0, first - overscan), Math.min(getRowCount() - 1, (int) Math.ceil((viewport.getMaxY() - contentY) / rowHeight) + overscan));
+		// the sync may have changed the amount of rows
+		int last = Math.min(getRowCount() - 1, (int) Math.ceil((viewport.getMaxY() - contentY) / rowHeight));
+		paint(first, last, contentX - canvas.getLayoutX(), contentY - canvas.getLayoutY());
+	}
+	
+	/**
+	 * Paints the given rows, the origin is the position of the first row (row 0) relative to the canvas
+	 */
+	private void paint(int first, int last, double originX, double originY) {
+		Tree<T> tree = getSkinnable();
+		double rowHeight = tree.rowHeightProperty().get();
+		double spacing = tree.spacingProperty().get();
+		int offset = tree.getFirstRow();
+		
+		GraphicsContext graphics = canvas.getGraphicsContext2D();
+		graphics.clearRect(0, 0, canvas.getWidth(), canvas.getHeight());
+		graphics.setFont(font);
+		graphics.setTextBaseline(VPos.CENTER);
+		measurer.setFont(font);
+		
+		Set<TreeItem<T>> items = Collections.newSetFromMap(new IdentityHashMap<TreeItem<T>, Boolean>());
+		for (int i = first; i <= last; i++) {
+			TreeCell<T> cell = tree.getCellAt(i + offset);
+			if (cell == null) {
+				break;
+			}
+			TreeItem<T> item = cell.getItem();
+			items.add(item);
+			if (!painted.remove(item)) {
+				item.itemProperty().addListener(repaintListener);
+			}
+			double y = originY + (i * rowHeight);
+			if (cell.selected.get()) {
+				graphics.setFill(selectionFill);
+				graphics.fillRect(0, y, canvas.getWidth(), rowHeight);
+			}
+			double x = originX + (cell.getIndent() * spacing);
+			Image icon = tree.getIconSet().getIcon(item, cell.expandedProperty().get());
+			if (icon != null) {
+				graphics.drawImage(icon, x, y + Math.floor((rowHeight - icon.getHeight()) / 2));
+				x += icon.getWidth() + gap;
+			}
+			String text = getText(item);
+			if (text != null && !text.isEmpty()) {
+				graphics.setFill(textFill);
+				graphics.fillText(text, x, y + (rowHeight / 2));
+				measurer.setText(text);
+				x += measurer.getLayoutBounds().getWidth();
+			}
+			if (x - originX > paintedWidth) {
+				paintedWidth = x - originX;
+				// the parent has to pick up the new preferred width
+				getSkinnable().requestLayout();
+			}
+		}
+		// stop listening to the items that are no longer painted
+		for (TreeItem<T> item : painted) {
+			item.itemProperty().removeListener(repaintListener);
+		}
+		painted = items;
+	}
+	
+	private String getText(TreeItem<T> item) {
+		Marshallable<T> marshallable = getSkinnable().getStringConverter();
+		return marshallable == null ? item.getName() : marshallable.marshal(item.itemProperty().get());
+	}
+
+	@Override
+	protected double computePrefWidth(double height, double topInset, double rightInset, double bottomInset, double leftInset) {
+		return leftInset + paintedWidth + rightInset;
+	}
+	
+	public Paint getSelectionFill() {
+		return selectionFill;
+	}
+
+	public void setSelectionFill(Paint selectionFill) {
+		this.selectionFill = selectionFill;
+		getSkinnable().requestLayout();
+	}
+
+	public Paint getTextFill() {
+		return textFill;
+	}
+
+	public void setTextFill(Paint textFill) {
+		this.textFill = textFill;
+		getSkinnable().requestLayout();
+	}
+
+	public Font getFont() {
+		return font;
+	}
+
+	public void setFont(Font font) {
+		this.font = font;
+		getSkinnable().requestLayout();
+	}
+
+	@Override
+	public void dispose() {
+		getSkinnable().getSelectionModel().getSelectedItems().removeListener(selectionListener);
+		getSkinnable().removeEventHandler(KeyEvent.KEY_PRESSED, keyHandler);
+		for (TreeItem<T> item : painted) {
+			item.itemProperty().removeListener(repaintListener);
+		}
+		painted.clear();
+		super.dispose();
+	}
+}
@@ -0,0 +1,102 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import javafx.application.Platform;
+
+/**
+ * Loads the children of async tree items on the refresh executor of the tree
+ * Only a limited amount of loads can run at the same time, the others are queued
+ * Apart from the actual loading, everything happens on the fx thread
+ */
+class ChildLoader<T> {
+
+	private Tree<T> tree;
+	private Deque<Load> queue = new ArrayDeque<Load>();
+	private int running;
+
+	ChildLoader(Tree<T> tree) {
+		this.tree = tree;
+	}
+
+	Load load(TreeCell<T> cell, AsyncTreeItem<T> item) {
+		Load load = new Load(cell, item);
+		queue.add(load);
+		startNext();
+		return load;
+	}
+
+	private void startNext() {
+		while (running < Math.max(1, tree.getMaxConcurrentLoads()) && !queue.isEmpty()) {
+			final Load load = queue.poll();
+			running++;
+			tree.getRefreshExecutor().execute(new Runnable() {
+				@Override
+				public void run() {
+					List<TreeItem<T>> children = null;
+					try {
+						// it may have been cancelled while it was waiting for a thread
+						if (!load.cancelled) {
+							children = load.item.loadChildren();
+						}
+					}
+					catch (RuntimeException e) {
+						Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+					}
+					finally {
+						final List<TreeItem<T>> loaded = children;
+						Platform.runLater(new Runnable() {
+							@Override
+							public void run() {
+								running--;
+								if (!load.cancelled) {
+									load.cell.finishLoad(load, loaded);
+								}
+								startNext();
+							}
+						});
+					}
+				}
+			});
+		}
+	}
+
+	class Load {
+		private TreeCell<T> cell;
+		private AsyncTreeItem<T> item;
+		// set on the fx thread, read by the loader
+		private volatile boolean cancelled;
+
+		Load(TreeCell<T> cell, AsyncTreeItem<T> item) {
+			this.cell = cell;
+			this.item = item;
+		}
+
+		/**
+		 * Queued loads are dropped, the result of running loads is ignored
+		 */
+		void cancel() {
+			cancelled = true;
+			queue.remove(this);
+		}
+	}
+}
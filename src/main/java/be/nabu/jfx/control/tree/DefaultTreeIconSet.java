@@ -0,0 +1,61 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import javafx.scene.image.Image;
+
+/**
+ * The default plus/minus icons for parents and a fixed icon for leaves
+ */
+public class DefaultTreeIconSet implements TreeIconSet {
+
+	private static volatile DefaultTreeIconSet instance;
+	
+	private final Image expandedIcon, collapsedIcon, leafIcon;
+	
+	public DefaultTreeIconSet() {
+		// the images are loaded up front so the instance can be shared without further synchronization
+		expandedIcon = TreeCell.loadImage("minus.png");
+		collapsedIcon = TreeCell.loadImage("plus.png");
+		leafIcon = TreeCell.loadImage("item.png");
+	}
+	
+	public static DefaultTreeIconSet getInstance() {
+		if (instance == null) {
+			synchronized(DefaultTreeIconSet.class) {
+				if (instance == null) {
+					instance = new DefaultTreeIconSet();
+				}
+			}
+		}
+		return instance;
+	}
+	
+	@Override
+	public Image getIcon(TreeItem<?> item, boolean expanded) {
+		if (item.leafProperty().get()) {
+			return leafIcon;
+		}
+		else if (expanded) {
+			return expandedIcon;
+		}
+		else {
+			return collapsedIcon;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Transforms a list into a target list with as little modifications as possible
+ * This is mostly meant for scene graph children where every removal and addition is expensive
+ *
+ * The elements are matched on identity:
+ * 		> elements that are not in the target are removed
+ * 		> of the remaining elements, the longest subsequence that is already in the correct order stays put
+ * 		> all the other elements are moved (removed and readded) or inserted
+ */
+class ListDiff {
+
+	private ListDiff() {}
+
+	/**
+	 * Returns true if the list was modified
+	 */
+	static <N> boolean apply(List<N> list, List<N> target) {
+		Map<N, Integer> targetIndexes = new IdentityHashMap<N, Integer>();
+		for (int i = 0; i < target.size(); i++) {
+			targetIndexes.put(target.get(i), i);
+		}
+		// everything that is no longer in the target has to go
+		Set<N> obsolete = Collections.newSetFromMap(new IdentityHashMap<N, Boolean>());
+		List<N> remaining = new ArrayList<N>();
+		for (N element : list) {
+			if (targetIndexes.containsKey(element)) {
+				remaining.add(element);
+			}
+			else {
+				obsolete.add(element);
+			}
+		}
+		// the elements that are part of the longest increasing subsequence are already in the correct order, the others need to move
+		int [] positions = new int[remaining.size()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = targetIndexes.get(remaining.get(i));
+		}
+		boolean [] stable = longestIncreasingSubsequence(positions);
+		for (int i = 0; i < stable.length; i++) {
+			if (!stable[i]) {
+				obsolete.add(remaining.get(i));
+			}
+		}
+		boolean modified = false;
+		if (!obsolete.isEmpty()) {
+			list.removeAll(obsolete);
+			modified = true;
+		}
+		// the list is now a subsequence of the target, insert the missing elements (in batches where possible)
+		int i = 0;
+		while (i < target.size()) {
+			if (i < list.size() && list.get(i) == target.get(i)) {
+				i++;
+			}
+			else {
+				int end = i + 1;
+				N next = i < list.size() ? list.get(i) : null;
+				while (end < target.size() && target.get(end) != next) {
+					end++;
+				}
+				list.addAll(i, new ArrayList<N>(target.subList(i, end)));
+				modified = true;
+				i = end;
+			}
+		}
+		return modified;
+	}
+
+	/**
+	 * Marks the elements that are part of a longest strictly increasing subsequence in O(n log n)
+	 */
+	static boolean [] longestIncreasingSubsequence(int [] sequence) {
+		boolean [] result = new boolean[sequence.length];
+		// tails[k] is the index of the smallest tail of all increasing subsequences with length k + 1
+		int [] tails = new int[sequence.length];
+		int [] previous = new int[sequence.length];
+		int length = 0;
+		for (int i = 0; i < sequence.length; i++) {
+			int low = 0, high = length;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (sequence[tails[middle]] < sequence[i]) {
+					low = middle + 1;
+				}
+				else {
+					high = middle;
+				}
+			}
+			previous[i] = low > 0 ? tails[low - 1] : -1;
+			tails[low] = i;
+			if (low == length) {
+				length++;
+			}
+		}
+		if (length > 0) {
+			for (int index = tails[length - 1]; index >= 0; index = previous[index]) {
+				result[index] = true;
+			}
+		}
+		return result;
+	}
+}
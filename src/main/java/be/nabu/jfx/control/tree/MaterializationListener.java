@@ -0,0 +1,29 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+/**
+ * Follows the incremental creation of the child cells when the tree has a materialization budget
+ */
+public interface MaterializationListener<T> {
+	/**
+	 * Called whenever a chunk of child cells has been created, return false to stop creating the remaining cells
+	 * The remaining cells are created the next time the children of the cell are synchronized (e.g. when it is expanded or refreshed)
+	 */
+	public boolean progress(TreeCell<T> cell, int materialized, int total);
+}
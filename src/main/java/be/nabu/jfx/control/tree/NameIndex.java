@@ -0,0 +1,112 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+/**
+ * Maps the names of the children of a tree item to the children themselves
+ * The index is built when it is first needed and thrown away when the children change or when the value of a child changes (which usually changes the name)
+ * A name that is not in the index is looked up by scanning the children so renames we did not notice are still found
+ * If multiple children have the same name, the first one wins
+ */
+class NameIndex<T> {
+
+	private ObservableList<TreeItem<T>> children;
+	private Map<String, TreeItem<T>> names;
+	private List<TreeItem<T>> indexed = new ArrayList<TreeItem<T>>();
+
+	private InvalidationListener invalidator = new InvalidationListener() {
+		@Override
+		public void invalidated(Observable observable) {
+			invalidate();
+		}
+	};
+
+	private ListChangeListener<TreeItem<T>> childrenListener = new ListChangeListener<TreeItem<T>>() {
+		@Override
+		public void onChanged(ListChangeListener.Change<? extends TreeItem<T>> change) {
+			invalidate();
+		}
+	};
+
+	NameIndex(ObservableList<TreeItem<T>> children) {
+		this.children = children;
+		children.addListener(childrenListener);
+	}
+
+	TreeItem<T> get(String name) {
+		if (names == null) {
+			build();
+		}
+		TreeItem<T> child = names.get(name);
+		// the name may have changed in a way we did not notice
+		if (child != null && !name.equals(child.getName())) {
+			invalidate();
+			build();
+			child = names.get(name);
+		}
+		// a child can be renamed without us noticing (e.g. the name does not depend on the value), the scan finds it and we reindex
+		if (child == null) {
+			for (TreeItem<T> candidate : children) {
+				if (name.equals(candidate.getName())) {
+					invalidate();
+					return candidate;
+				}
+			}
+		}
+		return child;
+	}
+	
+	/**
+	 * Stops listening to the children, the index can no longer be used afterwards
+	 */
+	void dispose() {
+		invalidate();
+		children.removeListener(childrenListener);
+	}
+
+	private void build() {
+		names = new HashMap<String, TreeItem<T>>();
+		for (TreeItem<T> child : children) {
+			if (!names.containsKey(child.getName())) {
+				names.put(child.getName(), child);
+			}
+			child.itemProperty().addListener(invalidator);
+			indexed.add(child);
+		}
+	}
+
+	private void invalidate() {
+		if (names != null) {
+			names = null;
+			for (TreeItem<T> child : indexed) {
+				child.itemProperty().removeListener(invalidator);
+			}
+			indexed.clear();
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javafx.application.Platform;
+
+/**
+ * Runs the refresh of the tree items in batches on the fx thread, the slow part of items that implement AsyncRefreshable is done in the background
+ * Nothing observable is modified outside of the fx thread: listeners on the items (the cells, the indexes,...) are always notified on the fx thread
+ *
+ * Every refresh that is started gets a new token, if a refresh is started on a cell (or one of its parents) while an older one is still going, the older one is stale:
+ * 		> stale refreshes whose background work has not started yet, are skipped
+ * 		> background work that is already running is not interrupted but its result is discarded
+ * 		> the results of stale refreshes are not propagated to the children
+ */
+class RefreshPipeline<T> {
+
+	/**
+	 * The maximum amount of time (in ms) we spend applying results before we give the fx thread back
+	 */
+	private static final long BATCH_BUDGET = 10;
+
+	private Tree<T> tree;
+	private AtomicLong tokens = new AtomicLong();
+	private Queue<Refreshed> refreshed = new ConcurrentLinkedQueue<Refreshed>();
+	private AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+	RefreshPipeline(Tree<T> tree) {
+		this.tree = tree;
+	}
+
+	void start(TreeCell<T> cell, boolean hard) {
+		Run run = new Run(tokens.incrementAndGet(), hard);
+		submit(run, cell, true);
+	}
+
+	private void submit(final Run run, final TreeCell<T> cell, final boolean isFirst) {
+		// an older run that reaches the cell late must not replace the token of a newer one, the newer run refreshes the cell anyway
+		if (cell.getRefreshToken() > run.token) {
+			return;
+		}
+		run.pending++;
+		cell.startRefresh(run.token);
+		final TreeItem<T> item = cell.getItem();
+		// only the preparation of an async refreshable item runs in the background, everything else is done when applying
+		if (!(item instanceof AsyncRefreshable)) {
+			finished(new Refreshed(run, cell, isFirst, null, false));
+			return;
+		}
+		tree.getRefreshExecutor().execute(new Runnable() {
+			@Override
+			public void run() {
+				Object prepared = null;
+				boolean failed = false;
+				try {
+					if (!isStale(cell, run.token)) {
+						prepared = ((AsyncRefreshable<?>) item).prepareRefresh(run.hard);
+					}
+				}
+				catch (RuntimeException e) {
+					failed = true;
+					Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+				}
+				finally {
+					finished(new Refreshed(run, cell, isFirst, prepared, failed));
+				}
+			}
+		});
+	}
+	
+	private void finished(Refreshed result) {
+		refreshed.add(result);
+		if (flushScheduled.compareAndSet(false, true)) {
+			Platform.runLater(flusher);
+		}
+	}
+
+	/**
+	 * A refresh is stale if a newer one has been started on the cell or one of its parents
+	 */
+	private boolean isStale(TreeCell<T> cell, long token) {
+		while (cell != null) {
+			if (cell.getRefreshToken() > token) {
+				return true;
+			}
+			cell = cell.getParent();
+		}
+		return false;
+	}
+
+	private Runnable flusher = new Runnable() {
+		@Override
+		public void run() {
+			flushScheduled.set(false);
+			long started = System.currentTimeMillis();
+			Refreshed next;
+			while ((next = refreshed.poll()) != null) {
+				apply(next);
+				// don't block the fx thread for too long, continue in the next pulse
+				if (System.currentTimeMillis() - started > BATCH_BUDGET && !refreshed.isEmpty()) {
+					if (flushScheduled.compareAndSet(false, true)) {
+						Platform.runLater(flusher);
+					}
+					break;
+				}
+			}
+		}
+	};
+
+	private void apply(Refreshed refreshed) {
+		Run run = refreshed.run;
+		TreeCell<T> cell = refreshed.cell;
+		run.pending--;
+		if (isStale(cell, run.token)) {
+			// if the newer refresh is for this exact cell, it will apply the changes once it is done
+			if (cell.getRefreshToken() == run.token) {
+				cell.cancelRefresh();
+			}
+		}
+		else {
+			refreshItem(refreshed);
+			List<TreeCell<T>> children = cell.finishRefresh(refreshed.isFirst);
+			for (TreeCell<T> child : children) {
+				submit(run, child, false);
+			}
+			if (run.pending == 0) {
+				tree.pushRefresh();
+			}
+		}
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void refreshItem(Refreshed refreshed) {
+		TreeItem<T> item = refreshed.cell.getItem();
+		try {
+			if (item instanceof AsyncRefreshable) {
+				if (!refreshed.failed) {
+					((AsyncRefreshable) item).applyRefresh(refreshed.prepared, refreshed.run.hard);
+				}
+			}
+			else {
+				item.refresh(refreshed.run.hard);
+			}
+		}
+		catch (RuntimeException e) {
+			Thread.currentThread().getUncaughtExceptionHandler().uncaughtException(Thread.currentThread(), e);
+		}
+	}
+	
+	private class Run {
+		private long token;
+		private boolean hard;
+		// only accessed on the fx thread
+		private int pending;
+
+		public Run(long token, boolean hard) {
+			this.token = token;
+			this.hard = hard;
+		}
+	}
+
+	private class Refreshed {
+		private Run run;
+		private TreeCell<T> cell;
+		private boolean isFirst;
+		// the result of the background preparation (if any)
+		private Object prepared;
+		private boolean failed;
+
+		public Refreshed(Run run, TreeCell<T> cell, boolean isFirst, Object prepared, boolean failed) {
+			this.run = run;
+			this.cell = cell;
+			this.isFirst = isFirst;
+			this.prepared = prepared;
+			this.failed = failed;
+		}
+	}
+}
@@ -0,0 +1,82 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+/**
+ * A fenwick tree over the visible row counts of the children of a cell
+ * This allows us to calculate the row of a child and find the child at a row in O(log n)
+ */
+class RowIndex {
+
+	// 1-based
+	private int [] sums;
+	private int total;
+
+	RowIndex(int [] counts) {
+		sums = new int[counts.length + 1];
+		for (int i = 0; i < counts.length; i++) {
+			sums[i + 1] += counts[i];
+			total += counts[i];
+			int parent = (i + 1) + ((i + 1) & -(i + 1));
+			if (parent < sums.length) {
+				sums[parent] += sums[i + 1];
+			}
+		}
+	}
+
+	int size() {
+		return sums.length - 1;
+	}
+
+	int total() {
+		return total;
+	}
+
+	void add(int index, int delta) {
+		total += delta;
+		for (int i = index + 1; i < sums.length; i += i & -i) {
+			sums[i] += delta;
+		}
+	}
+
+	/**
+	 * The sum of the counts of all the children before the given index
+	 */
+	int prefix(int index) {
+		int sum = 0;
+		for (int i = index; i > 0; i -= i & -i) {
+			sum += sums[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * The index of the child that contains the given row (relative to the first child)
+	 */
+	int find(int row) {
+		int position = 0;
+		int remaining = row;
+		for (int step = Integer.highestOneBit(size()); step > 0; step >>= 1) {
+			if (position + step < sums.length && sums[position + step] <= remaining) {
+				position += step;
+				remaining -= sums[position];
+			}
+		}
+		return position;
+	}
+}
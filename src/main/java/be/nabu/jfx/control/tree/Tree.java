@@ -17,26 +17,42 @@
 
 package be.nabu.jfx.control.tree;
 
+import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import be.nabu.jfx.control.tree.clipboard.ClipboardHandler;
 import be.nabu.jfx.control.tree.drag.TreeDragDrop;
 import be.nabu.jfx.control.tree.drag.TreeDragListener;
 import be.nabu.jfx.control.tree.drag.TreeDropListener;
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
+import javafx.beans.property.SimpleStringProperty;
+import javafx.beans.property.StringProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
 import javafx.collections.ListChangeListener;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
+import javafx.geometry.Bounds;
 import javafx.scene.Node;
 import javafx.scene.Parent;
 import javafx.scene.control.ContextMenu;
@@ -57,8 +73,26 @@ public class Tree<T> extends Control {
 	
 	private ObjectProperty<TreeItem<T>> root = new SimpleObjectProperty<TreeItem<T>>(this, "root");
 	private TreeCell<T> rootCell;
+	// all the cells that currently exist in the tree, by the exact item they represent
+	private Map<TreeItem<T>, TreeCell<T>> cells = new IdentityHashMap<TreeItem<T>, TreeCell<T>>();
+	
+	/**
+	 * Incremented whenever a cell is expanded or collapsed, the resolved visible cells are only valid within the epoch they were resolved in
+	 * Only the cells whose visible cell is actually observed (e.g. for their anchors) are updated eagerly
+	 */
+	private long expansionEpoch;
+	private Set<TreeCell<T>> observedCells = Collections.newSetFromMap(new IdentityHashMap<TreeCell<T>, Boolean>());
+	@SuppressWarnings("serial")
+	private static Map<String, String[]> parsedPaths = new LinkedHashMap<String, String[]>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, String[]> eldest) {
+			return size() > 1024;
+		}
+	};
 	private Marshallable<T> stringConverter;
 	private DoubleProperty spacing = new SimpleDoubleProperty(15);
+	// the height of a single row when rendering virtualized
+	private DoubleProperty rowHeight = new SimpleDoubleProperty(24);
 	private MultipleSelectionModel<TreeCell<T>> selectionModel = new TreeSelectionModel<T>();
 	private Map<String, Object> properties = new HashMap<String, Object>();
 	private ContextMenuProvider<T> contextMenuProvider;
@@ -67,6 +101,65 @@ public class Tree<T> extends Control {
 	private boolean autodetectDirty = true;
 	private String userStyleAgent;
 	private boolean invertSelection, readOnly;
+	// in virtualized mode only the rows in the viewport are actually in the scene graph
+	private boolean virtualized, flatCells, fixedRowHeight, rendered;
+	
+	/**
+	 * With a fixed row height, the cells whose vertical position is observed
+	 */
+	private Set<TreeCell<T>> positionedCells = Collections.newSetFromMap(new IdentityHashMap<TreeCell<T>, Boolean>());
+	// triggered when the visible rows (may) have changed
+	private Runnable rowsInvalidated;
+	// in async mode the tree items are refreshed on the refresh executor
+	private boolean asyncRefresh;
+	private Executor refreshExecutor;
+	private RefreshPipeline<T> refreshPipeline;
+	private static volatile Executor defaultRefreshExecutor;
+	// the amount of async tree items that can load their children at the same time
+	private int maxConcurrentLoads = 4;
+	private ChildLoader<T> childLoader;
+	// cells with changes to their children that have not been applied yet
+	private Set<TreeCell<T>> changedCells = new LinkedHashSet<TreeCell<T>>();
+	private int batchDepth;
+	private boolean coalesceChanges;
+	private TreeScheduler<T> scheduler = new TreeScheduler<T>(this);
+	
+	/**
+	 * The time (in ms) per pulse we can spend creating child cells, 0 means all children are created at once
+	 */
+	private long materializationBudget;
+	private MaterializationListener<T> materializationListener;
+	private Set<TreeCell<T>> materializing = new LinkedHashSet<TreeCell<T>>();
+	
+	/**
+	 * The tasks that are being run in slices and the time (in ms) they can take per pulse
+	 */
+	private List<TreeTask<T>> tasks = new ArrayList<TreeTask<T>>();
+	private long taskBudget = 10;
+	
+	/**
+	 * In virtualized mode the rows within this distance of the viewport are loaded as well so they are ready when scrolled into view
+	 * The load window is the range of rows the skin currently loads, -1 as long as the skin has not determined it
+	 */
+	private int overscan = 10;
+	private int loadWindowStart = -1, loadWindowEnd = -1;
+	
+	private ReadOnlyObjectWrapper<ScrollPane> scrollParent = new ReadOnlyObjectWrapper<ScrollPane>();
+	
+	/**
+	 * The text of the placeholder that is shown while the children of a cell are loaded, if null only the styled placeholder (.jfx-tree-loading) is shown
+	 */
+	private StringProperty loadingText = new SimpleStringProperty(this, "loadingText", "Loading...");
+	
+	/**
+	 * The maximum amount of cell nodes that we keep around (0 is unlimited), beyond that the nodes of the least recently collapsed subtrees are evicted
+	 */
+	private int liveNodeBudget;
+	private int liveNodes;
+	private boolean evictCells;
+	private Set<TreeCell<T>> collapsedCells = new LinkedHashSet<TreeCell<T>>();
+	// mouse moved events can be very frequent, it is not always necessary to redeliver them to the cells
+	private boolean redeliverMouseMoved = true;
 	// if you can update the tree while it has never been opened, refreshes are not guaranteed to go through
 	private boolean refreshOnFirstOpen;
 	
@@ -74,6 +167,7 @@ public class Tree<T> extends Control {
 	private List<TreeDropListener<T>> dropListeners;
 	
 	private Callback<TreeItem<T>, TreeCellValue<T>> cellValueFactory;
+	private TreeIconSet iconSet = DefaultTreeIconSet.getInstance();
 	
 	private List<Refreshable> linkedRefreshables = new ArrayList<Refreshable>();
 	
@@ -124,6 +218,8 @@ public class Tree<T> extends Control {
 //		minWidthProperty().bind(prefWidthProperty());
 		this.cellValueFactory = cellValueFactory;
 		getStyleClass().add("jfx-tree");
+		// events in the child nodes of a cell are redelivered to the node of the cell
+		setEventDispatcher(new TreeEventDispatcher(this, getEventDispatcher()));
 		// only change selection in the treecell depending on the actual selection model
 		// this way you can guarantee that external meddling with the selection is displayed properly in the tree
 		selectionModel.getSelectedItems().addListener(new ListChangeListener<TreeCell<T>>() {
@@ -147,6 +243,25 @@ public class Tree<T> extends Control {
 				setRootCell(new TreeCell<T>(Tree.this, rootProperty().getValue()));
 			}
 		});
+		// with a fixed row height, the positions of the cells depend on these as well
+		InvalidationListener positionListener = new InvalidationListener() {
+			@Override
+			public void invalidated(Observable observable) {
+				schedulePositions();
+			}
+		};
+		rowHeight.addListener(positionListener);
+		layoutYProperty().addListener(positionListener);
+		paddingProperty().addListener(positionListener);
+		// moving (an ancestor of) the tree takes it out of the scene first so these cover all changes to the scroll parent
+		InvalidationListener scrollParentListener = new InvalidationListener() {
+			@Override
+			public void invalidated(Observable observable) {
+				scrollParent.set(JFXUtils.getScrollParent(Tree.this));
+			}
+		};
+		sceneProperty().addListener(scrollParentListener);
+		parentProperty().addListener(scrollParentListener);
 		this.addEventHandler(KeyEvent.KEY_PRESSED, new EventHandler<KeyEvent>() {
 			@Override
 			public void handle(KeyEvent event) {
@@ -191,17 +306,120 @@ public class Tree<T> extends Control {
 		autoscroll(to, false);
 	}
 	
+	/**
+	 * The scrolling is asynchronous: it is done once per pulse and only the last requested cell is scrolled to
+	 * If you need the scroll position to be updated immediately, use scrollTo() or scrollIntoView()
+	 */
 	public void autoscroll(TreeCell<T> to, boolean focus) {
-		ScrollPane parent = JFXUtils.getScrollParent(getRootCell().getNode());
+		scheduler.scheduleAutoscroll(to, focus);
+	}
+	
+	void autoscrollNow(TreeCell<T> to, boolean focus) {
+		ScrollPane parent = getScrollParent();
 		if (parent != null) {
-			JFXUtils.focusInScroll(parent, to, false, focus);
+			// without a fixed row height the cell may have moved (e.g. because of an expansion), only a full layout tells us where it is now
+			if (!isFixedRowHeight()) {
+				JFXUtils.focusInScroll(parent, to, false, focus);
+			}
+			else {
+				scrollTo(to, true);
+				// we have to focus _after_ the vvalue is set
+				if (focus && getScene() != null) {
+					getScene().getWindow().requestFocus();
+					requestFocus();
+				}
+			}
 		}
 	}
 	
+	/**
+	 * Scrolls the enclosing scrollpane so the cell is centered (as far as the content allows)
+	 * With a fixed row height the position of the cell is calculated from the row index, so this works right after the tree is modified without having to lay it out
+	 * Without a fixed row height the current layout of the node of the cell is used
+	 */
+	public void scrollTo(TreeCell<T> cell) {
+		scrollTo(cell, true);
+	}
+	
+	/**
+	 * Scrolls the enclosing scrollpane as little as possible to make the cell fully visible
+	 */
+	public void scrollIntoView(TreeCell<T> cell) {
+		scrollTo(cell, false);
+	}
+	
+	private void scrollTo(TreeCell<T> cell, boolean center) {
+		ScrollPane pane = getScrollParent();
+		if (pane == null || pane.getContent() == null || cell.getTree() != this) {
+			return;
+		}
+		Node content = pane.getContent();
+		double contentHeight = content.getLayoutBounds().getHeight();
+		double top, height;
+		if (isFixedRowHeight()) {
+			int row = cell.getRow();
+			if (row < 0) {
+				row = cell.getVisibleCell().getRow();
+			}
+			height = rowHeight.get();
+			// the position of the tree within the content, this only requires the transforms, not a layout
+			double treeTop = content.sceneToLocal(localToScene(0, 0)).getY();
+			top = treeTop + snappedTopInset() + (Math.max(0, row - getFirstRow()) * height);
+			// the content may not have been resized yet for rows that were added since the last layout
+			contentHeight = Math.max(contentHeight, treeTop + snappedTopInset() + (Math.max(0, getRowCount() - getFirstRow()) * height) + snappedBottomInset());
+		}
+		else {
+			Region display = cell.getItemDisplay();
+			if (display == null) {
+				return;
+			}
+			Bounds bounds = content.sceneToLocal(display.localToScene(display.getLayoutBounds()));
+			top = bounds.getMinY();
+			height = bounds.getHeight();
+		}
+		double viewportHeight = pane.getViewportBounds().getHeight();
+		double scrollable = contentHeight - viewportHeight;
+		double range = pane.getVmax() - pane.getVmin();
+		if (scrollable <= 0) {
+			pane.setVvalue(pane.getVmin());
+			return;
+		}
+		double current = ((pane.getVvalue() - pane.getVmin()) / range) * scrollable;
+		double target;
+		if (center) {
+			target = top + (height / 2) - (viewportHeight / 2);
+		}
+		else if (top < current) {
+			target = top;
+		}
+		else if (top + height > current + viewportHeight) {
+			target = top + height - viewportHeight;
+		}
+		else {
+			return;
+		}
+		target = Math.max(0, Math.min(scrollable, target));
+		pane.setVvalue(pane.getVmin() + (range * target / scrollable));
+	}
+	
+	/**
+	 * The scrollpane the tree is in (if any), this is only looked up again when the tree is moved in the scene graph
+	 */
+	public ScrollPane getScrollParent() {
+		return scrollParent.get();
+	}
+	
+	public ReadOnlyObjectProperty<ScrollPane> scrollParentProperty() {
+		return scrollParent.getReadOnlyProperty();
+	}
+	
 	public void autoscroll() {
 		autoscroll(false);
 	}
 	
+	/**
+	 * Scrolls to the selected cell in the next pulse, see autoscroll(TreeCell, boolean)
+	 */
 	public void autoscroll(boolean focus) {
 		if (getSelectionModel().getSelectedItem() != null) {
 			autoscroll(getSelectionModel().getSelectedItem(), focus);
@@ -233,6 +451,12 @@ public class Tree<T> extends Control {
 	}
 	
 	public TreeCell<T> getTreeCell(TreeItem<T> item) {
+		// if the cell already exists, we don't need to walk the tree
+		TreeCell<T> existing = cells.get(item);
+		// the item might have been moved in the meantime without the old parent cell being refreshed
+		if (existing != null && (existing == rootCell || (existing.getParent() != null && existing.getParent().getItem().equals(item.getParent())))) {
+			return existing;
+		}
 		List<TreeItem<T>> path = getPath(item);
 		// not the same root?
 		if (!path.get(0).equals(rootCell.getItem())) {
@@ -247,6 +471,25 @@ public class Tree<T> extends Control {
 		return cell;
 	}
 	
+	/**
+	 * The row of the cell amongst all the visible cells where the root cell is row 0 (even if it hides itself)
+	 * Returns -1 if the cell is not visible because one of its parents is collapsed
+	 */
+	public int getRow(TreeCell<T> cell) {
+		if (rootCell == null || cell.getTree() != this) {
+			return -1;
+		}
+		return cell.getRow();
+	}
+	
+	public TreeCell<T> getCellAt(int row) {
+		return rootCell == null ? null : rootCell.getRowCell(row);
+	}
+	
+	public int getRowCount() {
+		return rootCell == null ? 0 : rootCell.getVisibleCount();
+	}
+	
 	public ObjectProperty<TreeItem<T>> rootProperty() {
 		return root;
 	}
@@ -260,9 +503,108 @@ public class Tree<T> extends Control {
 	}
 
 	void setRootCell(TreeCell<T> rootCell) {
+		if (this.rootCell != null) {
+			this.rootCell.detach();
+		}
+		// the new root cell has already registered itself
 		this.rootCell = rootCell;
 	}
 	
+	void registerCell(TreeCell<T> cell) {
+		cells.put(cell.getItem(), cell);
+	}
+	
+	long getExpansionEpoch() {
+		return expansionEpoch;
+	}
+	
+	void expansionChanged(TreeCell<T> cell) {
+		expansionEpoch++;
+		if (liveNodeBudget > 0) {
+			// the most recently collapsed cells are at the end
+			collapsedCells.remove(cell);
+			if (!cell.expandedProperty().get()) {
+				collapsedCells.add(cell);
+				scheduleEviction();
+			}
+		}
+		for (TreeCell<T> observed : observedCells) {
+			if (observed.isDescendantOf(cell)) {
+				observed.updateVisibleCell();
+			}
+		}
+	}
+	
+	void observeVisibleCell(TreeCell<T> cell) {
+		observedCells.add(cell);
+	}
+	
+	void unobserveVisibleCell(TreeCell<T> cell) {
+		observedCells.remove(cell);
+	}
+	
+	void nodeCreated() {
+		liveNodes++;
+		scheduleEviction();
+	}
+	
+	void nodeReleased() {
+		liveNodes--;
+	}
+	
+	private void scheduleEviction() {
+		if (liveNodeBudget > 0 && liveNodes > liveNodeBudget && !collapsedCells.isEmpty()) {
+			scheduler.schedule(TreeScheduler.Work.EVICT);
+		}
+	}
+	
+	void evict() {
+		Iterator<TreeCell<T>> iterator = collapsedCells.iterator();
+		while (liveNodes > liveNodeBudget && iterator.hasNext()) {
+			TreeCell<T> cell = iterator.next();
+			iterator.remove();
+			cell.evict(evictCells);
+		}
+	}
+	
+	/**
+	 * The amount of cell nodes that currently exist
+	 */
+	public int getLiveNodes() {
+		return liveNodes;
+	}
+	
+	public int getLiveNodeBudget() {
+		return liveNodeBudget;
+	}
+
+	/**
+	 * If set, the nodes of collapsed subtrees are released (least recently collapsed first) when there are more cell nodes than the budget
+	 */
+	public void setLiveNodeBudget(int liveNodeBudget) {
+		this.liveNodeBudget = liveNodeBudget;
+		if (liveNodeBudget <= 0) {
+			collapsedCells.clear();
+		}
+	}
+
+	public boolean isEvictCells() {
+		return evictCells;
+	}
+
+	/**
+	 * If set, eviction releases the cells of collapsed subtrees as well, not just their nodes
+	 */
+	public void setEvictCells(boolean evictCells) {
+		this.evictCells = evictCells;
+	}
+	
+	void unregisterCell(TreeCell<T> cell) {
+		collapsedCells.remove(cell);
+		// an item that has moved may already have a new cell
+		cells.remove(cell.getItem(), cell);
+	}
+	
 	@Override
 	public String getUserAgentStylesheet() {
 		if (userStyleAgent == null) {
@@ -279,10 +621,27 @@ public class Tree<T> extends Control {
 		return spacing;
 	}
 	
+	public DoubleProperty rowHeightProperty() {
+		return rowHeight;
+	}
+	
 	public MultipleSelectionModel<TreeCell<T>> getSelectionModel() {
 		return selectionModel;
 	}
 
+	public TreeIconSet getIconSet() {
+		return iconSet;
+	}
+
+	public void setIconSet(TreeIconSet iconSet) {
+		this.iconSet = iconSet == null ? DefaultTreeIconSet.getInstance() : iconSet;
+		for (TreeCell<T> cell : cells.values()) {
+			cell.refreshItemDisplayIcon();
+		}
+		// a rendered tree paints the icons itself
+		requestLayout();
+	}
+
 	public Callback<TreeItem<T>, TreeCellValue<T>> getCellValueFactory() {
 		return cellValueFactory;
 	}
@@ -292,39 +651,77 @@ public class Tree<T> extends Control {
 	}
 	
 	public TreeItem<T> resolve(String path, boolean fail) {
-		return resolve(rootProperty().get(), path.replaceAll("^[/]*(.*?)[/]*$", "$1").split("/"), 0, fail);
+		String [] parts = parsePath(path);
+		TreeItem<T> target = rootProperty().get();
+		for (int counter = 0; counter < parts.length; counter++) {
+			if (target.leafProperty().get())
+				throw new IllegalArgumentException("Can't resolve against a leaf: " + Arrays.asList(parts));
+			TreeItem<T> child = getChild(target, parts[counter]);
+			if (child == null) {
+				StringBuilder builder = new StringBuilder();
+				for (String part : parts) {
+					if (!builder.toString().isEmpty()) {
+						builder.append("/");
+					}
+					builder.append(part);
+				}
+				if (fail) {
+					throw new IllegalArgumentException("The path does not exist: " + builder.toString() + " [" + counter + "]");
+				}
+				else {
+					return null;
+				}
+			}
+			target = child;
+		}
+		return target;
 	}
 	
-	private TreeItem<T> resolve(TreeItem<T> against, String [] path, int counter, boolean fail) {
-		if (against.leafProperty().get())
-			throw new IllegalArgumentException("Can't resolve against a leaf: " + Arrays.asList(path));
-		TreeItem<T> target = null;
-		for (TreeItem<T> child : against.getChildren()) {
-			if (child.getName().equals(path[counter])) {
-				target = child;
-				break;
+	/**
+	 * The name index lives on the cell of the item so it is released together with the cell
+	 * Items without a cell are scanned
+	 */
+	private TreeItem<T> getChild(TreeItem<T> item, String name) {
+		TreeCell<T> cell = cells.get(item);
+		if (cell != null) {
+			return cell.getNameIndex().get(name);
+		}
+		for (TreeItem<T> child : item.getChildren()) {
+			if (name.equals(child.getName())) {
+				return child;
 			}
 		}
-		if (target == null) {
-			StringBuilder builder = new StringBuilder();
-			for (String part : path) {
-				if (!builder.toString().isEmpty()) {
-					builder.append("/");
+		return null;
+	}
+	
+	/**
+	 * Strips leading and trailing slashes and splits the rest, the result is cached because the same paths tend to be resolved over and over
+	 */
+	private static String [] parsePath(String path) {
+		synchronized(parsedPaths) {
+			String [] parts = parsedPaths.get(path);
+			if (parts == null) {
+				int start = 0, end = path.length();
+				while (start < end && path.charAt(start) == '/') {
+					start++;
 				}
-				builder.append(part);
-			}
-			if (fail) {
-				throw new IllegalArgumentException("The path does not exist: " + builder.toString() + " [" + counter + "]");
-			}
-			else {
-				return null;
+				while (end > start && path.charAt(end - 1) == '/') {
+					end--;
+				}
+				List<String> list = new ArrayList<String>();
+				int from = start;
+				for (int i = start; i < end; i++) {
+					if (path.charAt(i) == '/') {
+						list.add(path.substring(from, i));
+						from = i + 1;
+					}
+				}
+				list.add(path.substring(from, end));
+				parts = list.toArray(new String[list.size()]);
+				parsedPaths.put(path, parts);
 			}
+			return parts;
 		}
-		
-		if (counter == path.length - 1)
-			return target;
-		else
-			return resolve(target, path, counter + 1, fail);
 	}
 
 	public void addRefreshListener(Refreshable...refreshables) {
@@ -335,13 +732,82 @@ public class Tree<T> extends Control {
 		linkedRefreshables.removeAll(Arrays.asList(refreshables));
 	}
 
+	/**
+	 * The refresh of the linked refreshables is asynchronous: they are refreshed once per pulse, no matter how many cells were refreshed
+	 * This means they are not yet refreshed when this method returns
+	 */
 	void pushRefresh() {
+		scheduler.schedule(TreeScheduler.Work.REFRESH);
+	}
+	
+	void refreshLinked() {
 		// refresh linked items
 		for (Refreshable linked : linkedRefreshables) {
 			linked.refresh();
 		}
 	}
 	
+	/**
+	 * Any changes to the children of the tree items during the runnable are only applied to the cells once it is done
+	 * Batches can be nested, the changes are applied when the outermost batch is done
+	 */
+	public void batch(Runnable runnable) {
+		batchDepth++;
+		try {
+			runnable.run();
+		}
+		finally {
+			batchDepth--;
+			if (batchDepth == 0) {
+				applyChanges();
+			}
+		}
+	}
+	
+	/**
+	 * Returns true if the changes to the children of the cell will be applied later on
+	 */
+	boolean deferChanges(TreeCell<T> cell) {
+		if (batchDepth > 0) {
+			changedCells.add(cell);
+			return true;
+		}
+		else if (coalesceChanges) {
+			changedCells.add(cell);
+			scheduler.schedule(TreeScheduler.Work.CHANGES);
+			return true;
+		}
+		return false;
+	}
+	
+	void applyDeferredChanges() {
+		// if we are in a batch, it will apply the changes when it's done
+		if (batchDepth == 0) {
+			applyChanges();
+		}
+	}
+	
+	private void applyChanges() {
+		while (!changedCells.isEmpty()) {
+			List<TreeCell<T>> cells = new ArrayList<TreeCell<T>>(changedCells);
+			changedCells.clear();
+			for (TreeCell<T> cell : cells) {
+				cell.applyChanges();
+			}
+		}
+	}
+	
+	public boolean isCoalesceChanges() {
+		return coalesceChanges;
+	}
+
+	/**
+	 * If set, changes to the children of the tree items are always collected and applied once per pulse
+	 */
+	public void setCoalesceChanges(boolean coalesceChanges) {
+		this.coalesceChanges = coalesceChanges;
+	}
+
 	public void set(String name, Object value) {
 		properties.put(name, value);
 	}
@@ -350,7 +816,65 @@ public class Tree<T> extends Control {
 		return properties.get(name);
 	}
 	
+	void scheduleResize() {
+		scheduler.schedule(TreeScheduler.Work.RESIZE);
+	}
+	
+	void scheduleMaterialization(TreeCell<T> cell) {
+		materializing.add(cell);
+		scheduler.schedule(TreeScheduler.Work.MATERIALIZE);
+	}
+	
+	void cancelMaterialization(TreeCell<T> cell) {
+		materializing.remove(cell);
+	}
+	
+	void materialize() {
+		long started = System.currentTimeMillis();
+		// if the budget was removed in the meantime, everything is done at once
+		while (!materializing.isEmpty() && (materializationBudget <= 0 || System.currentTimeMillis() - started < materializationBudget)) {
+			TreeCell<T> cell = materializing.iterator().next();
+			materializing.remove(cell);
+			// if there is more to be done, it is rescheduled
+			cell.materialize();
+		}
+		if (!materializing.isEmpty()) {
+			scheduler.schedule(TreeScheduler.Work.MATERIALIZE);
+		}
+	}
+	
+	public long getMaterializationBudget() {
+		return materializationBudget;
+	}
+
+	/**
+	 * If set, the child cells of a cell are created in chunks that take at most this long (in ms) per pulse
+	 * The first chunk is created immediately so the first rows are visible right away
+	 */
+	public void setMaterializationBudget(long materializationBudget) {
+		this.materializationBudget = materializationBudget;
+	}
+
+	public MaterializationListener<T> getMaterializationListener() {
+		return materializationListener;
+	}
+
+	public void setMaterializationListener(MaterializationListener<T> materializationListener) {
+		this.materializationListener = materializationListener;
+	}
+
+	/**
+	 * The scheduler that coalesces the resizing, autoscrolling and refreshing of the tree per pulse
+	 */
+	public TreeScheduler<T> getScheduler() {
+		return scheduler;
+	}
+	
 	public void resize() {
+		// the resize is scheduled, the root may have been removed in the meantime
+		if (getRootCell() == null) {
+			return;
+		}
 		// update size of tree on expanded toggling
 		double rootWidth = 50 + getRootCell().getLocalWidth();
 		if (!prefWidthProperty().isBound()) {
@@ -438,17 +962,68 @@ public class Tree<T> extends Control {
 		}
 	}
 	
+	/**
+	 * Loads everything in one go, this blocks the fx thread until it is done no matter how big the tree is
+	 * Use scheduleForceLoad() to spread the work over multiple pulses
+	 */
 	public void forceLoad(TreeItem<T> item, boolean recursive) {
-		for (TreeItem<T> child : item.getChildren()) {
-			TreeCell<T> cell = getTreeCell(child);
-			if (cell == null) {
-				throw new IllegalStateException("Can not find treecell for: " + TreeDragDrop.getPath(item));
+		TreeTask.forceLoad(getLoadableCell(item), recursive).run(0);
+	}
+	
+	/**
+	 * Loads everything in slices that respect the task budget
+	 */
+	public TreeTask<T> scheduleForceLoad() {
+		return root.get() == null ? null : scheduleForceLoad(root.get(), true);
+	}
+	
+	public TreeTask<T> scheduleForceLoad(TreeItem<T> item, boolean recursive) {
+		return submit(TreeTask.forceLoad(getLoadableCell(item), recursive));
+	}
+	
+	private TreeCell<T> getLoadableCell(TreeItem<T> item) {
+		TreeCell<T> cell = getTreeCell(item);
+		if (cell == null) {
+			throw new IllegalStateException("Can not find treecell for: " + TreeDragDrop.getPath(item));
+		}
+		return cell;
+	}
+	
+	TreeTask<T> submit(TreeTask<T> task) {
+		tasks.add(task);
+		scheduler.schedule(TreeScheduler.Work.TASKS);
+		return task;
+	}
+	
+	/**
+	 * Runs the tasks one after the other until the budget for this pulse is spent
+	 */
+	void runTasks() {
+		long started = System.currentTimeMillis();
+		Iterator<TreeTask<T>> iterator = tasks.iterator();
+		while (iterator.hasNext()) {
+			long remaining = taskBudget - (System.currentTimeMillis() - started);
+			if (remaining <= 0) {
+				break;
 			}
-			cell.initialize();
-			if (recursive) {
-				forceLoad(child, recursive);
+			if (iterator.next().run(remaining)) {
+				iterator.remove();
 			}
 		}
+		if (!tasks.isEmpty()) {
+			scheduler.schedule(TreeScheduler.Work.TASKS);
+		}
+	}
+	
+	public long getTaskBudget() {
+		return taskBudget;
+	}
+
+	/**
+	 * The maximum time (in ms) scheduled tasks can take per pulse
+	 */
+	public void setTaskBudget(long taskBudget) {
+		this.taskBudget = Math.max(1, taskBudget);
 	}
 
 	/**
@@ -471,8 +1046,309 @@ public class Tree<T> extends Control {
 		this.invertSelection = invertSelection;
 	}
 
+	public boolean isVirtualized() {
+		return virtualized;
+	}
+
+	/**
+	 * In virtualized mode the tree is rendered as a flat list of rows where only the rows that intersect with the viewport are in the scene graph
+	 * The cells are rebuilt when toggling this so it is best set before the tree is shown
+	 */
+	public void setVirtualized(boolean virtualized) {
+		if (this.virtualized != virtualized) {
+			this.virtualized = virtualized;
+			// the skin is chosen in the stylesheet
+			if (virtualized) {
+				getStyleClass().add("virtualized");
+			}
+			else {
+				getStyleClass().remove("virtualized");
+			}
+			// the cells build a different node structure depending on the mode
+			getSelectionModel().clearSelection();
+			if (root.get() != null) {
+				setRootCell(new TreeCell<T>(this, root.get()));
+			}
+		}
+	}
+	
+	/**
+	 * Whether the cells are rendered as a single region per row, this only applies in virtualized mode
+	 */
+	public boolean isFlatCells() {
+		return virtualized && flatCells;
+	}
+
+	/**
+	 * In virtualized mode the nodes of the children are never nested so the spacer and the item container of a cell are superfluous
+	 * With flat cells, the item display (icon, graphic and value) is the entire node of the cell, the skin takes care of the indentation
+	 * The cells are rebuilt when toggling this so it is best set before the tree is shown
+	 * TreeCell.getItemContainer() throws an IllegalStateException for flat cells, use TreeCell.getItemDisplay() instead
+	 */
+	public void setFlatCells(boolean flatCells) {
+		if (this.flatCells != flatCells) {
+			this.flatCells = flatCells;
+			if (virtualized) {
+				getSelectionModel().clearSelection();
+				if (root.get() != null) {
+					setRootCell(new TreeCell<T>(this, root.get()));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Whether the rows are painted onto a canvas instead of being nodes in the scene graph, this only applies in virtualized mode
+	 */
+	public boolean isRendered() {
+		return virtualized && rendered;
+	}
+
+	/**
+	 * Meant for large read-only trees: the indentation, the icons and the marshalled values of the rows in the viewport are painted directly onto a canvas
+	 * No nodes are created for the cells so custom cell values, graphics and inline editing are not available
+	 * Selection, expansion, keyboard navigation, context menus and dragging still work, the mouse events on the canvas are mapped to the cell in that row
+	 * A rendered tree is always read-only, regardless of setReadOnly(): the move keys (control + arrows) are ignored
+	 */
+	public void setRendered(boolean rendered) {
+		if (this.rendered != rendered) {
+			this.rendered = rendered;
+			// the skin is chosen in the stylesheet
+			if (rendered) {
+				getStyleClass().add("rendered");
+			}
+			else {
+				getStyleClass().remove("rendered");
+			}
+			// the selection styling of the cell values is not kept up to date while rendered
+			getSelectionModel().clearSelection();
+		}
+	}
+	
+	/**
+	 * The cell in the row at the given vertical position (in local coordinates), this can only be determined with a fixed row height
+	 */
+	public TreeCell<T> getCellAtY(double y) {
+		if (!isFixedRowHeight() || y < snappedTopInset()) {
+			return null;
+		}
+		return getCellAt(getFirstRow() + (int) ((y - snappedTopInset()) / rowHeight.get()));
+	}
+	
+	public StringProperty loadingTextProperty() {
+		return loadingText;
+	}
+	
+	public String getLoadingText() {
+		return loadingText.get();
+	}
+	
+	public void setLoadingText(String loadingText) {
+		this.loadingText.set(loadingText);
+	}
+	
+	public int getOverscan() {
+		return overscan;
+	}
+
+	/**
+	 * The amount of rows above and below the viewport that are loaded (and in virtualized mode added to the scene graph) before they are scrolled into view
+	 * A cell that is expanded outside of that window postpones its refresh and the loading of its children until the skin reaches it
+	 */
+	public void setOverscan(int overscan) {
+		this.overscan = Math.max(0, overscan);
+		requestLayout();
+	}
+	
+	/**
+	 * Set by the skin on every layout: the rows (including the overscan) that are currently loaded
+	 */
+	void setLoadWindow(int start, int end) {
+		this.loadWindowStart = start;
+		this.loadWindowEnd = end;
+	}
+	
+	/**
+	 * Whether expanding the cell can be postponed: in virtualized mode only the cells within the load window are loaded right away
+	 * The classic layout nests the nodes of the children so there everything is loaded, as is everything before the viewport is known
+	 */
+	boolean isDeferred(TreeCell<T> cell) {
+		if (!virtualized || loadWindowStart < 0 || cell.getParent() == null) {
+			return false;
+		}
+		int row = cell.getRow();
+		return row < loadWindowStart || row > loadWindowEnd;
+	}
+	
+	void setRowsInvalidated(Runnable rowsInvalidated) {
+		this.rowsInvalidated = rowsInvalidated;
+	}
+	
+	/**
+	 * Only removes the callback if it has not been replaced in the meantime
+	 */
+	void removeRowsInvalidated(Runnable rowsInvalidated) {
+		if (this.rowsInvalidated == rowsInvalidated) {
+			this.rowsInvalidated = null;
+		}
+	}
+	
+	void invalidateRows() {
+		if (rowsInvalidated != null) {
+			rowsInvalidated.run();
+		}
+		schedulePositions();
+	}
+	
+	public boolean isFixedRowHeight() {
+		return virtualized || fixedRowHeight;
+	}
+
+	/**
+	 * With a fixed row height every row is exactly rowHeight high, the vertical position of a cell is its row times the row height
+	 * This replaces the chain of bindings (each cell adding its own position to that of its parent) with a lookup in the row index
+	 * Virtualized trees always have a fixed row height, in the nested layout the item displays are forced to the row height
+	 * The cells are rebuilt when toggling this so it is best set before the tree is shown
+	 */
+	public void setFixedRowHeight(boolean fixedRowHeight) {
+		if (this.fixedRowHeight != fixedRowHeight) {
+			this.fixedRowHeight = fixedRowHeight;
+			if (!virtualized) {
+				getSelectionModel().clearSelection();
+				if (root.get() != null) {
+					setRootCell(new TreeCell<T>(this, root.get()));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * The first row that is actually shown, a hidden root does not take up a row
+	 */
+	int getFirstRow() {
+		return rootCell != null && rootCell.hideSelfProperty().get() ? 1 : 0;
+	}
+	
+	/**
+	 * The vertical position of the cell (relative to the parent of the tree) with a fixed row height
+	 * A cell that is not visible because a parent is collapsed gets the position of that parent
+	 */
+	double getLayoutY(TreeCell<T> cell) {
+		int row = cell.getRow();
+		if (row < 0) {
+			row = cell.getVisibleCell().getRow();
+		}
+		return getLayoutY() + snappedTopInset() + (Math.max(0, row - getFirstRow()) * rowHeight.get());
+	}
+	
+	void trackPosition(TreeCell<T> cell) {
+		positionedCells.add(cell);
+	}
+	
+	void untrackPosition(TreeCell<T> cell) {
+		positionedCells.remove(cell);
+	}
+	
+	private void schedulePositions() {
+		if (!positionedCells.isEmpty()) {
+			scheduler.schedule(TreeScheduler.Work.POSITIONS);
+		}
+	}
+	
+	void updatePositions() {
+		for (TreeCell<T> cell : positionedCells) {
+			cell.updateTreeLayoutY();
+		}
+	}
+
+	public boolean isAsyncRefresh() {
+		return asyncRefresh;
+	}
+
+	/**
+	 * When refreshing asynchronously, the tree items are refreshed in batches spread over multiple pulses and older refreshes of the same cells are cancelled
+	 * Items that implement AsyncRefreshable prepare their refresh on the refresh executor, the item itself is only ever modified on the fx thread
+	 */
+	public void setAsyncRefresh(boolean asyncRefresh) {
+		this.asyncRefresh = asyncRefresh;
+	}
+
+	public Executor getRefreshExecutor() {
+		if (refreshExecutor == null) {
+			refreshExecutor = getDefaultRefreshExecutor();
+		}
+		return refreshExecutor;
+	}
+
+	public void setRefreshExecutor(Executor refreshExecutor) {
+		this.refreshExecutor = refreshExecutor;
+	}
+	
+	public int getMaxConcurrentLoads() {
+		return maxConcurrentLoads;
+	}
+
+	public void setMaxConcurrentLoads(int maxConcurrentLoads) {
+		this.maxConcurrentLoads = maxConcurrentLoads;
+	}
+	
+	ChildLoader<T> getChildLoader() {
+		if (childLoader == null) {
+			childLoader = new ChildLoader<T>(this);
+		}
+		return childLoader;
+	}
+	
+	RefreshPipeline<T> getRefreshPipeline() {
+		if (refreshPipeline == null) {
+			refreshPipeline = new RefreshPipeline<T>(this);
+		}
+		return refreshPipeline;
+	}
+	
+	/**
+	 * Uses virtual threads if the jvm supports them, otherwise a pool of daemon threads
+	 */
+	private static Executor getDefaultRefreshExecutor() {
+		if (defaultRefreshExecutor == null) {
+			synchronized(Tree.class) {
+				if (defaultRefreshExecutor == null) {
+					try {
+						Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+						defaultRefreshExecutor = (Executor) method.invoke(null);
+					}
+					catch (Exception e) {
+						defaultRefreshExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+							@Override
+							public Thread newThread(Runnable runnable) {
+								Thread thread = new Thread(runnable, "jfx-tree-refresh");
+								thread.setDaemon(true);
+								return thread;
+							}
+						});
+					}
+				}
+			}
+		}
+		return defaultRefreshExecutor;
+	}
+
+	public boolean isRedeliverMouseMoved() {
+		return redeliverMouseMoved;
+	}
+
+	/**
+	 * If disabled, mouse moved events on the content of a cell are not redelivered to the node of the cell
+	 */
+	public void setRedeliverMouseMoved(boolean redeliverMouseMoved) {
+		this.redeliverMouseMoved = redeliverMouseMoved;
+	}
+
+	/**
+	 * A rendered tree is always read-only
+	 */
 	public boolean isReadOnly() {
-		return readOnly;
+		return readOnly || isRendered();
 	}
 
 	public void setReadOnly(boolean readOnly) {
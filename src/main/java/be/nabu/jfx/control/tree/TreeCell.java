@@ -20,16 +20,20 @@ package be.nabu.jfx.control.tree;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.reflect.Method;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import be.nabu.jfx.control.tree.MovableTreeItem.Direction;
-import javafx.application.Platform;
 import javafx.beans.property.BooleanProperty;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.ObjectProperty;
@@ -42,21 +46,23 @@ import javafx.beans.property.SimpleDoubleProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.beans.value.WeakChangeListener;
 import javafx.collections.ListChangeListener;
 import javafx.collections.ObservableList;
-import javafx.event.Event;
+import javafx.collections.WeakListChangeListener;
 import javafx.event.EventHandler;
 import javafx.geometry.Pos;
 import javafx.scene.Node;
+import javafx.scene.control.Label;
 import javafx.scene.control.Tooltip;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.input.DragEvent;
 import javafx.scene.input.KeyCode;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseButton;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.layout.HBox;
+import javafx.scene.layout.Pane;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.Region;
 import javafx.scene.layout.VBox;
@@ -72,6 +78,18 @@ import javafx.util.Duration;
  * The child loading is postponed as long as possible because of circular references
  * 		> suppose child A loads B, B loads C and C tries to load A again
  * 		> without lazy loading, this will always end up badly
+ * 
+ * A tree can know a lot of cells that are never shown (e.g. the children of a parent that was expanded once), so a cell starts out as small as possible:
+ * 		> the anchors and tree layout properties are only created when they are requested
+ * 		> the visible cell property is only created when it is observed
+ * 		> the icon node is only created when the item display is built (the images are shared), the node and the cell value when they are shown
+ * 		> leaves never allocate a map for their children
+ * A cell that has never been shown only holds the cell itself, its expanded/selected/hideSelf properties and the weak listeners on the item
+ * Its budget is 1KB including its registration on the tree, this is enforced by TreeCellFootprintTest (which measured about 730 bytes when it was written)
+ * A cell that is actually shown additionally holds its nodes which are considerably bigger
+ * 
+ * With a live node budget, the tree can evict the nodes (and optionally the cells) of collapsed subtrees
+ * The identity guarantee above still holds for every cell that is observed (anchors, visible cell, layout position) or selected: those are never evicted
  */
 public class TreeCell<T> implements Refreshable, Focusable {
 	
@@ -87,16 +105,14 @@ public class TreeCell<T> implements Refreshable, Focusable {
 	 */
 	private boolean isDirty = true;
 	
-	private DoubleProperty leftAnchorX = new SimpleDoubleProperty(),
-			leftAnchorY = new SimpleDoubleProperty(),
-			rightAnchorX = new SimpleDoubleProperty(),
-			rightAnchorY = new SimpleDoubleProperty(),
-			treeLayoutX = new SimpleDoubleProperty(),
-			treeLayoutY = new SimpleDoubleProperty();
+	// created on demand
+	private DoubleProperty leftAnchorX, leftAnchorY, rightAnchorX, rightAnchorY, treeLayoutX, treeLayoutY;
+	
+	/**
+	 * The cached width of the cell value and of the cell including its visible children (-1 if it has to be recalculated)
+	 */
+	private double cellWidth = -1, subtreeWidth = -1;
 	
-	private ImageView expandedIcon = loadGraphic("minus.png"), 
-			collapsedIcon = loadGraphic("plus.png"), 
-			itemIcon = loadGraphic("item.png");
 	
 	private boolean isLoaded = false;
 	
@@ -115,22 +131,76 @@ public class TreeCell<T> implements Refreshable, Focusable {
 	 */
 	private HBox itemDisplay;
 	
-	private HBox displayIcon;
+	/**
+	 * A single icon node, the image depends on the state of the cell and is provided by the icon set of the tree
+	 */
+	private ImageView displayIcon;
 	
 	private TreeCellValue<T> cellValue;
 	
-	private Map<TreeItem<T>, TreeCell<T>> children = new LinkedHashMap<TreeItem<T>, TreeCell<T>>();
+	// leaves never need an actual map
+	private Map<TreeItem<T>, TreeCell<T>> children = Collections.emptyMap();
 	
 	private TreeCell<T> parent;
 	
-	private boolean isRefreshing = false;
+	/**
+	 * The children in order with the amount of visible rows each one of them contains, this allows for row based lookups in O(log n)
+	 * The visible count of a cell is the cell itself plus, if expanded, the visible counts of its children
+	 */
+	private List<TreeCell<T>> childList;
+	private RowIndex rowIndex;
+	private int childIndex = -1, visibleCount = 1;
+	
+	// can be checked from a background thread when refreshing asynchronously
+	private volatile boolean isRefreshing = false;
+	
+	/**
+	 * The token of the last asynchronous refresh that was started for this cell
+	 */
+	private volatile long refreshToken;
+	
+	/**
+	 * For async tree items: whether the children have been loaded and the load that is currently running (if any)
+	 */
+	private boolean childrenLoaded;
+	private ChildLoader<T>.Load loading;
+	private HBox loadingNode;
 	
 	/**
 	 * This keeps track for each treecell which cell is actually visible
 	 * By default this is the treecell itself of course but if you start collapsing random parents, you need to keep track of the first actually visible parent
 	 * You can't do this with the visibleProperty() because if you first collapse parent1, you will trigger a change, but if you then collapse the parents parent, you will not be triggered and still reference the parent
+	 * 
+	 * The visible cell is resolved lazily and cached for the expansion epoch of the tree, the property is only kept up to date once someone observes it (or the anchors)
+	 */
+	private ObjectProperty<TreeCell<T>> visibleCell;
+	private TreeCell<T> resolvedVisibleCell;
+	private long resolvedEpoch = -1;
+	private boolean anchorsBound;
+	
+	/**
+	 * The listeners on observables that can outlive this cell (the item, the parent,...) are only registered weakly so they can't keep the cell alive
+	 * The cell itself holds the actual listeners, when it is disposed they are removed explicitly
+	 */
+	private List<Runnable> disposers = new ArrayList<Runnable>(), nodeDisposers;
+	
+	// created on demand when paths are resolved through this cell
+	private NameIndex<T> nameIndex;
+	
+	/**
+	 * Whether not all the children have been created yet because of the materialization budget of the tree
 	 */
-	private ObjectProperty<TreeCell<T>> visibleCell = new SimpleObjectProperty<TreeCell<T>>(this);
+	private boolean materializing;
+	
+	/**
+	 * Whether the pending refresh was triggered by the first expansion rather than an explicit refresh
+	 */
+	private boolean opening;
+	
+	/**
+	 * Whether the cell was expanded outside of the load window, the refresh and the loading of the children are postponed until it comes near the viewport
+	 */
+	private boolean deferred;
 	
 	TreeCell(Tree<T> tree, TreeItem<T> item) {
 		this(tree, item, null);
@@ -140,51 +210,61 @@ public class TreeCell<T> implements Refreshable, Focusable {
 		this.tree = tree;
 		this.item = item;
 		this.parent = parent;
+		tree.registerCell(this);
 		
 		// if the expanded status changes, the visibility of the direct child nodes must be updated
 		expanded.addListener(new ChangeListener<Boolean>() {
 			@Override
 			public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean newValue) {
-				if (newValue && !isInitialized) {
+				// the visible cells of the children are resolved lazily, only the observed ones are updated
+				tree.expansionChanged(TreeCell.this);
+				invalidateWidth();
+				// switch the icon
+				refreshItemDisplayIcon();
+				// far away from the viewport, the refresh and the loading of the children wait until the skin needs them
+				deferred = newValue && tree.isDeferred(TreeCell.this);
+				if (newValue && !isInitialized && !deferred) {
 					initialize();
-					internalRefresh(true, false);
+					open();
+				}
+				// load the children of async items in the background, there is no point in continuing if it is collapsed before we are done
+				if (item instanceof AsyncTreeItem) {
+					if (newValue && !childrenLoaded && loading == null && !deferred) {
+						startLoad();
+					}
+					else if (!newValue) {
+						cancelLoad();
+					}
 				}
 				for (final TreeCell<T> child : children.values()) {
-					if (newValue) {
-						if (!child.isLoaded) {
-							itemContainer.getChildren().add(child.getNode());
+					// in virtualized mode the child nodes are not nested, the skin decides which ones are shown
+					if (!tree.isVirtualized()) {
+						if (newValue) {
+							if (!child.isLoaded) {
+								itemContainer.getChildren().add(child.getNode());
+							}
+						}
+						if (child.isLoaded) {
+							child.getNode().visibleProperty().setValue(newValue);
 						}
 					}
-					if (child.isLoaded) {
-						child.getNode().visibleProperty().setValue(newValue);
-					}
-					// if you have collapsed, set the visible cell of the child to this
-					child.visibleCell.setValue(newValue ? child : TreeCell.this);
 				}
-				Platform.runLater(resizer);
+				// make sure the row index knows about the children before we count them
+				if (newValue && !item.leafProperty().get() && !deferred) {
+					syncChildren(false);
+				}
+				updateVisibleCount();
+				tree.invalidateRows();
+				tree.scheduleResize();
 			}
 		});
 		
-		// monitor the "visible cell" of the parent
-		if (parent != null) {
-			parent.visibleCell.addListener(new ChangeListener<TreeCell<T>>() {
-				@Override
-				public void changed(ObservableValue<? extends TreeCell<T>> arg0, TreeCell<T> arg1, TreeCell<T> newCell) {
-					// if the parent "visible cell" is updated to the parent itself, that means it has been made visible, depending on its expanded property the children are visible or not
-					if (parent.equals(newCell))
-						visibleCell.set(parent.expandedProperty().getValue() ? TreeCell.this : parent);
-					// the parent is updated to something else so it has become invisible, update this as well
-					else
-						visibleCell.set(newCell);
-				}
-			});
-		}
-		
 		// if you update the leafiness of an item, we probably need to update its icon
-		item.leafProperty().addListener(new ChangeListener<Boolean>() {
+		listen(item.leafProperty(), new ChangeListener<Boolean>() {
 			@Override
 			public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean arg2) {
 				refreshItemDisplayIcon();
+				updateVisibleCount();
 			}
 		});
 		
@@ -192,6 +272,10 @@ public class TreeCell<T> implements Refreshable, Focusable {
 		selected.addListener(new ChangeListener<Boolean>() {
 			@Override
 			public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean newValue) {
+				// a rendered tree paints the selection itself
+				if (tree.isRendered()) {
+					return;
+				}
 				if (newValue) {
 					getCellValue().getNode().requestFocus();
 					getCellValue().getNode().getStyleClass().remove("deselected");
@@ -203,15 +287,8 @@ public class TreeCell<T> implements Refreshable, Focusable {
 				}
 			}
 		});
-	
-		visibleCell.addListener(new ChangeListener<TreeCell<T>>() {
-			@Override
-			public void changed(ObservableValue<? extends TreeCell<T>> arg0, TreeCell<T> arg1, TreeCell<T> arg2) {
-				bindAnchors();
-			}
-		});
 		
-		item.getChildren().addListener(new ListChangeListener<TreeItem<T>>() {
+		final ListChangeListener<TreeItem<T>> childrenListener = new ListChangeListener<TreeItem<T>>() {
 			@Override
 			public void onChanged(javafx.collections.ListChangeListener.Change<? extends TreeItem<T>> arg0) {
 				// if you are in the middle of a refresh, ignore changes to children
@@ -219,18 +296,52 @@ public class TreeCell<T> implements Refreshable, Focusable {
 				// if we trigger on every change, we will throw away all the mapped cells
 				if (!isRefreshing) {
 					isDirty = true;
-					refreshItemContainer(false);
+					// in a batch all the changes to the children are applied at once when it is done
+					if (!tree.deferChanges(TreeCell.this)) {
+						refreshChildCells(false);
+					}
 				}
 			}
+		};
+		final WeakListChangeListener<TreeItem<T>> weakChildrenListener = new WeakListChangeListener<TreeItem<T>>(childrenListener);
+		item.getChildren().addListener(weakChildrenListener);
+		disposers.add(new Runnable() {
+			// keeps the actual listener alive as long as the cell is
+			@SuppressWarnings("unused")
+			private Object strongListener = childrenListener;
+			@Override
+			public void run() {
+				item.getChildren().removeListener(weakChildrenListener);
+			}
 		});
 	}
 	
-	Resizer resizer = new Resizer();
-	private class Resizer implements Runnable {
-		@Override
-		public void run() {
-			tree.resize();
+	private <V> void listen(final ObservableValue<V> observable, final ChangeListener<V> listener) {
+		listen(observable, listener, disposers);
+	}
+	
+	/**
+	 * Listeners that belong to the nodes of the cell are removed when the nodes are evicted
+	 */
+	private <V> void listenWhileShown(final ObservableValue<V> observable, final ChangeListener<V> listener) {
+		if (nodeDisposers == null) {
+			nodeDisposers = new ArrayList<Runnable>();
 		}
+		listen(observable, listener, nodeDisposers);
+	}
+	
+	private <V> void listen(final ObservableValue<V> observable, final ChangeListener<V> listener, List<Runnable> disposers) {
+		final WeakChangeListener<V> weakListener = new WeakChangeListener<V>(listener);
+		observable.addListener(weakListener);
+		disposers.add(new Runnable() {
+			// keeps the actual listener alive as long as the cell is
+			@SuppressWarnings("unused")
+			private Object strongListener = listener;
+			@Override
+			public void run() {
+				observable.removeListener(weakListener);
+			}
+		});
 	}
 	
 	private boolean isInitialized = false;
@@ -238,20 +349,51 @@ public class TreeCell<T> implements Refreshable, Focusable {
 	void initialize() {
 		if (!isInitialized) {
 			isInitialized = true;
-			if (parent == null) {
+			// in virtualized mode the skin requests the nodes it actually shows
+			if (!tree.isVirtualized()) {
+				getNode();
+			}
+			isDirty = true;
+		}
+	}
+	
+	private DoubleProperty treeLayoutX() {
+		if (treeLayoutX == null) {
+			treeLayoutX = new SimpleDoubleProperty();
+			// in virtualized mode the nodes are only laid out when they are in the viewport so we can't rely on their layout
+			// the horizontal position follows from the indentation
+			if (tree.isVirtualized()) {
+				treeLayoutX.bind(tree.layoutXProperty().add(tree.spacingProperty().multiply(getIndent())));
+			}
+			else if (parent == null) {
 				treeLayoutX.bind(tree.layoutXProperty().add(getItemContainer().layoutXProperty()));
+			}
+			else {
+				treeLayoutX.bind(parent.treeLayoutX().add(getItemContainer().layoutXProperty()));
+			}
+		}
+		return treeLayoutX;
+	}
+	
+	private DoubleProperty treeLayoutY() {
+		if (treeLayoutY == null) {
+			// with a fixed row height the vertical position follows from the row, the tree updates it when the rows change
+			if (tree.isFixedRowHeight()) {
+				treeLayoutY = new SimpleDoubleProperty(tree.getLayoutY(this));
+				tree.trackPosition(this);
+				return treeLayoutY;
+			}
+			treeLayoutY = new SimpleDoubleProperty();
+			if (parent == null) {
 				treeLayoutY.bind(tree.layoutYProperty().add(getNode().layoutYProperty()));
 			}
 			else {
-				treeLayoutX.bind(parent.treeLayoutXProperty().add(getItemContainer().layoutXProperty()));
 				// there is a gradual decay in Y-positioning the deeper you go into the tree (level-wise)
 				// adding the layoutYProperty of the item container fixes this (not entirely sure why...)
-				treeLayoutY.bind(parent.treeLayoutYProperty().add(getNode().layoutYProperty()).add(getItemContainer().layoutYProperty()));
+				treeLayoutY.bind(parent.treeLayoutY().add(getNode().layoutYProperty()).add(getItemContainer().layoutYProperty()));
 			}
-	
-			bindAnchors();
-			isDirty = true;
 		}
+		return treeLayoutY;
 	}
 	
 	public List<TreeCell<T>> getChildren() {
@@ -259,21 +401,26 @@ public class TreeCell<T> implements Refreshable, Focusable {
 	}
 	
 	public void expandAll() {
-		initialize();
-		expandedProperty().set(true);
-		for (TreeCell<T> child : children.values()) {
-			child.expandAll();
-		}
+		expandAll(Integer.MAX_VALUE);
 	}
 	
+	/**
+	 * Expands everything up to the given depth in one go, this blocks the fx thread until it is done no matter how big the tree is
+	 * Use scheduleExpandAll() to spread the work over multiple pulses
+	 */
 	public void expandAll(int count) {
-		initialize();
-		expandedProperty().set(true);
-		if (count > 0) {
-			for (TreeCell<T> child : children.values()) {
-				child.expandAll(count - 1);
-			}
-		}
+		TreeTask.expandAll(this, count).run(0);
+	}
+	
+	/**
+	 * Expands everything in slices that respect the task budget of the tree
+	 */
+	public TreeTask<T> scheduleExpandAll() {
+		return scheduleExpandAll(Integer.MAX_VALUE);
+	}
+	
+	public TreeTask<T> scheduleExpandAll(int count) {
+		return tree.submit(TreeTask.expandAll(this, count));
 	}
 	
 	public void collapseAll() {
@@ -286,12 +433,26 @@ public class TreeCell<T> implements Refreshable, Focusable {
 	}
 	
 	private void bindAnchors() {
-		leftAnchorX.bind(visibleCell.getValue().treeLayoutX);
+		if (leftAnchorX == null) {
+			leftAnchorX = new SimpleDoubleProperty();
+			leftAnchorY = new SimpleDoubleProperty();
+			rightAnchorX = new SimpleDoubleProperty();
+			rightAnchorY = new SimpleDoubleProperty();
+		}
+		TreeCell<T> visible = getVisibleCell();
+		if (tree.isVirtualized()) {
+			leftAnchorX.bind(visible.treeLayoutX());
+			leftAnchorY.bind(visible.treeLayoutY().add(tree.rowHeightProperty().divide(2)));
+			rightAnchorX.bind(visible.treeLayoutX().add(visible.getCellValue().getNode().layoutXProperty().add(visible.getCellValue().getNode().widthProperty())));
+			rightAnchorY.bind(visible.treeLayoutY().add(tree.rowHeightProperty().divide(2)));
+			return;
+		}
+		leftAnchorX.bind(visible.treeLayoutX());
 		// should divide height by 2 to get centered but this looks good, same for below
-		leftAnchorY.bind(visibleCell.getValue().treeLayoutY.add(visibleCell.get().getCellValue().getNode().layoutYProperty().add(visibleCell.getValue().getCellValue().getNode().heightProperty().divide(1.4))));
+		leftAnchorY.bind(visible.treeLayoutY().add(visible.getCellValue().getNode().layoutYProperty().add(visible.getCellValue().getNode().heightProperty().divide(1.4))));
 		
-		rightAnchorX.bind(visibleCell.getValue().treeLayoutX.add(visibleCell.getValue().getCellValue().getNode().layoutXProperty().add(visibleCell.getValue().getCellValue().getNode().widthProperty())));
-		rightAnchorY.bind(visibleCell.getValue().treeLayoutY.add(visibleCell.getValue().getCellValue().getNode().heightProperty().divide(1.4)));
+		rightAnchorX.bind(visible.treeLayoutX().add(visible.getCellValue().getNode().layoutXProperty().add(visible.getCellValue().getNode().widthProperty())));
+		rightAnchorY.bind(visible.treeLayoutY().add(visible.getCellValue().getNode().heightProperty().divide(1.4)));
 	}
 	
 	public void show() {
@@ -310,32 +471,94 @@ public class TreeCell<T> implements Refreshable, Focusable {
 	}
 	
 	public ReadOnlyObjectProperty<TreeCell<T>> visibleCellProperty() {
+		observeVisibleCell();
 		return visibleCell;
 	}	
 	public ReadOnlyDoubleProperty leftAnchorXProperty() {
-		initialize();
+		observeAnchors();
 		return leftAnchorX;
 	}
 	public ReadOnlyDoubleProperty leftAnchorYProperty() {
-		initialize();
+		observeAnchors();
 		return leftAnchorY;
 	}
 
 	public ReadOnlyDoubleProperty rightAnchorXProperty() {
-		initialize();
+		observeAnchors();
 		return rightAnchorX;
 	}
 	public ReadOnlyDoubleProperty rightAnchorYProperty() {
-		initialize();
+		observeAnchors();
 		return rightAnchorY;
 	}
+	
+	/**
+	 * The outermost collapsed parent or the cell itself if all the parents are expanded
+	 */
+	TreeCell<T> getVisibleCell() {
+		long epoch = tree.getExpansionEpoch();
+		if (resolvedVisibleCell == null || resolvedEpoch != epoch) {
+			TreeCell<T> visible = this;
+			for (TreeCell<T> current = parent; current != null; current = current.parent) {
+				if (!current.expanded.get()) {
+					visible = current;
+				}
+			}
+			resolvedVisibleCell = visible;
+			resolvedEpoch = epoch;
+		}
+		return resolvedVisibleCell;
+	}
+	
+	/**
+	 * Called by the tree for observed cells when a parent is expanded or collapsed
+	 */
+	void updateVisibleCell() {
+		visibleCell.set(getVisibleCell());
+	}
+	
+	private void observeVisibleCell() {
+		if (visibleCell == null) {
+			visibleCell = new SimpleObjectProperty<TreeCell<T>>(getVisibleCell());
+			visibleCell.addListener(new ChangeListener<TreeCell<T>>() {
+				@Override
+				public void changed(ObservableValue<? extends TreeCell<T>> arg0, TreeCell<T> arg1, TreeCell<T> arg2) {
+					if (anchorsBound) {
+						bindAnchors();
+					}
+				}
+			});
+			tree.observeVisibleCell(this);
+		}
+	}
+	
+	/**
+	 * The anchors are only bound once someone actually uses them
+	 */
+	private void observeAnchors() {
+		initialize();
+		observeVisibleCell();
+		if (!anchorsBound) {
+			anchorsBound = true;
+			bindAnchors();
+		}
+	}
+	
+	boolean isDescendantOf(TreeCell<T> cell) {
+		for (TreeCell<T> current = parent; current != null; current = current.parent) {
+			if (current == cell) {
+				return true;
+			}
+		}
+		return false;
+	}
 	public ReadOnlyDoubleProperty treeLayoutXProperty() {
 		initialize();
-		return treeLayoutX;
+		return treeLayoutX();
 	}
 	public ReadOnlyDoubleProperty treeLayoutYProperty() {
 		initialize();
-		return treeLayoutY;
+		return treeLayoutY();
 	}
 	
 	public Tree<T> getTree() {
@@ -361,6 +584,13 @@ public class TreeCell<T> implements Refreshable, Focusable {
 		return item;
 	}
 	
+	NameIndex<T> getNameIndex() {
+		if (nameIndex == null) {
+			nameIndex = new NameIndex<T>(item.getChildren());
+		}
+		return nameIndex;
+	}
+	
 	Map<TreeItem<T>, TreeCell<T>> getChildrenAsMap() {
 		initialize();
 		getNode();
@@ -369,48 +599,216 @@ public class TreeCell<T> implements Refreshable, Focusable {
 	
 	@Override
 	public void refresh() {
+		opening = false;
 		internalRefresh(true, false);
 	}
 
 	@Override
 	public void refresh(boolean hard) {
+		opening = false;
 		internalRefresh(true, hard);
 	}
 	
+	/**
+	 * The refresh on the first expansion
+	 * With a materialization budget it only propagates to the children that are already loaded, the others are refreshed when they are materialized
+	 * Without a budget (the default) it behaves like an explicit refresh and all the new children are refreshed as well
+	 */
+	private void open() {
+		opening = tree.getMaterializationBudget() > 0;
+		internalRefresh(true, false);
+	}
+	
 	private void internalRefresh(boolean isFirst, boolean hard) {
+		// the item is refreshed in the background, the rest is done once it is finished
+		if (tree.isAsyncRefresh()) {
+			tree.getRefreshPipeline().start(this, hard);
+			return;
+		}
 		isRefreshing = true;
 		// first force a refresh on the current item
 		item.refresh(hard);
+		// propagate the refresh to the children
+		for (TreeCell<T> child : finishRefresh(isFirst)) {
+			child.internalRefresh(false, hard);
+		}
+		// first refresh all the children (where necessary)
+		if (isFirst) {
+			getTree().pushRefresh();
+		}
+	}
+	
+	/**
+	 * Updates the cell after the item has been refreshed and returns the children the refresh should be propagated to
+	 */
+	List<TreeCell<T>> finishRefresh(boolean isFirst) {
 		isRefreshing = false;
+		// async items reload their children on refresh (if they are visible)
+		if (item instanceof AsyncTreeItem) {
+			childrenLoaded = false;
+			cancelLoad();
+			if (expanded.get()) {
+				if (tree.isDeferred(this)) {
+					deferred = true;
+				}
+				else {
+					startLoad();
+				}
+			}
+		}
+		// an explicit refresh needs all the children right away, the first expansion creates them in chunks (if there is a budget)
+		boolean force = isFirst && !opening;
+		opening = false;
 		// then refresh the child contents which will rebuild the treecells
-		refreshItemContainer(isFirst);
+		refreshChildCells(force);
 		// refresh the icon (not really necessary i think but hey)
 		refreshItemDisplayIcon();
 		// refresh the cell value (this updates the label or whatever is being used)
-		cellValue.refresh();
-		// propagate the refresh to the children
+		// in virtualized mode it is possible that the cell value was never built
+		if (cellValue != null) {
+			cellValue.refresh();
+		}
+		List<TreeCell<T>> refreshable = new ArrayList<TreeCell<T>>();
 		for (TreeCell<T> child : children.values()) {
 			// only reload immediate children
-			if (child.isLoaded || isFirst) {
-				child.internalRefresh(false, hard);
+			if (child.isLoaded || force) {
+				refreshable.add(child);
 			}
 		}
-		// first refresh all the children (where necessary)
-		if (isFirst) {
-			getTree().pushRefresh();
+		return refreshable;
+	}
+	
+	/**
+	 * Performs the work that was postponed because the cell was expanded outside of the load window of the tree
+	 */
+	void loadDeferred() {
+		if (deferred) {
+			deferred = false;
+			if (!isInitialized) {
+				initialize();
+				open();
+			}
+			if (item instanceof AsyncTreeItem && !childrenLoaded && loading == null) {
+				startLoad();
+			}
+			if (!item.leafProperty().get()) {
+				syncChildren(false);
+			}
+			updateVisibleCount();
+			tree.invalidateRows();
+		}
+	}
+	
+	private void startLoad() {
+		loading = tree.getChildLoader().load(this, (AsyncTreeItem<T>) item);
+		showLoading(true);
+	}
+	
+	private void cancelLoad() {
+		if (loading != null) {
+			loading.cancel();
+			loading = null;
+			showLoading(false);
+		}
+	}
+	
+	void finishLoad(ChildLoader<T>.Load load, final List<TreeItem<T>> loaded) {
+		// only the most recent load counts
+		if (load == loading) {
+			loading = null;
+			showLoading(false);
+			// if it failed, we try again next time
+			if (loaded != null) {
+				childrenLoaded = true;
+				// the diff fires a change per contiguous run, the batch makes sure we only sync once
+				tree.batch(new Runnable() {
+					@Override
+					public void run() {
+						TreeUtils.refreshChildren(item, loaded);
+					}
+				});
+			}
 		}
 	}
 	
+	/**
+	 * While loading, a placeholder is shown where the children would be
+	 * With a fixed row height there is no room for additional rows so it is added to the item display instead
+	 */
+	private void showLoading(boolean show) {
+		if (show && loadingNode == null) {
+			loadingNode = new HBox();
+			loadingNode.getStyleClass().add("jfx-tree-loading");
+			if (!tree.isFixedRowHeight()) {
+				Region spacer = new Region();
+				spacer.prefWidthProperty().bind(tree.spacingProperty());
+				spacer.minWidthProperty().bind(tree.spacingProperty());
+				loadingNode.getChildren().add(spacer);
+			}
+			if (tree.getLoadingText() != null) {
+				Label label = new Label();
+				label.textProperty().bind(tree.loadingTextProperty());
+				loadingNode.getChildren().add(label);
+			}
+			if (tree.isFixedRowHeight()) {
+				if (itemDisplay != null) {
+					itemDisplay.getChildren().add(loadingNode);
+				}
+			}
+			else if (itemContainer != null) {
+				itemContainer.getChildren().add(loadingNode);
+			}
+		}
+		else if (!show && loadingNode != null) {
+			if (loadingNode.getParent() instanceof Pane) {
+				((Pane) loadingNode.getParent()).getChildren().remove(loadingNode);
+			}
+			loadingNode = null;
+		}
+	}
+	
+	void startRefresh(long token) {
+		// the token never goes backwards, otherwise the result of a newer refresh would be considered stale
+		refreshToken = Math.max(refreshToken, token);
+		// changes to the children while refreshing are ignored, we resync once the refresh is done
+		isRefreshing = true;
+	}
+	
+	/**
+	 * A stale refresh does not propagate to the children but the changes it did make to the item are synced
+	 */
+	void cancelRefresh() {
+		isRefreshing = false;
+		isDirty = true;
+		refreshChildCells(false);
+	}
+	
+	long getRefreshToken() {
+		return refreshToken;
+	}
+	
 	public Region getNode() {
 		if (!isLoaded && tree.isRefreshOnFirstOpen()) {
-			refresh();
+			open();
+		}
+		if (!isLoaded) {
+			isLoaded = true;
+			// an unloaded cell does not count for the width of its parent
+			if (parent != null) {
+				parent.invalidateWidth();
+			}
 		}
-		isLoaded = true;
 		if (node == null) {
-			node = new HBox();
+			tree.nodeCreated();
+			// with flat cells, the item display is the whole row: there is no spacer and no item container
+			node = tree.isFlatCells() ? buildItemDisplay() : new HBox();
 			node.getStyleClass().add("tree-cell");
+			if (tree.isFlatCells()) {
+				node.getStyleClass().add("jfx-tree-row");
+			}
 			// only add the spacer if there is a parent
-			if (item.getParent() != null) {
+			// in virtualized mode the skin positions the node based on the indentation
+			if (item.getParent() != null && !tree.isVirtualized()) {
 				HBox spacer = new HBox();
 				spacer.getStyleClass().add("jfx-tree-spacer");
 				spacer.prefWidthProperty().bind(tree.spacingProperty());
@@ -434,58 +832,7 @@ public class TreeCell<T> implements Refreshable, Focusable {
 				@Override
 				public void handle(MouseEvent event) {
 					if (!event.isConsumed() && event.getTarget().equals(node)) {
-						if (tree.getClickHandler() != null) {
-							tree.getClickHandler().handle(event);
-						}
-						// if you didn't consume it, do default stuff
-						if (!event.isConsumed()) {
-							// at the very least, request focus
-							tree.getRootCell().focus();
-							// single click = select
-							if (event.getClickCount() == 1) {
-								if ((event.isControlDown() ^ tree.isInvertSelection()) && tree.getSelectionModel().getSelectedItems().contains(TreeCell.this)) {
-									tree.getSelectionModel().getSelectedItems().remove(TreeCell.this);
-									event.consume();
-								}
-								// if we have shift down and don't have invert selection on (which is weird currently)
-								// we do a multiselect from the last selected
-								else if (event.isShiftDown() && !tree.isInvertSelection()) {
-									ObservableList<TreeCell<T>> current = tree.getSelectionModel().getSelectedItems();
-									TreeCell<T> last = current.get(current.size() - 1);
-									// we keep stepping to the next item until we find the current one
-									List<TreeCell<T>> siblings = last.getParent().getChildren();
-									
-									int lastIndex = siblings.indexOf(last);
-									int myIndex = siblings.indexOf(TreeCell.this);
-									
-									// if we are not part of the same parent, we don't do anything atm. walking the tree can be difficult, especially for lazily loaded trees
-									if (myIndex >= 0) {
-										// we are further than the last index, select everything in between
-										if (myIndex > lastIndex) {
-											for (int i = lastIndex + 1; i <= myIndex; i++) {
-												select(siblings.get(i), true);
-											}
-										}
-										else if (myIndex < lastIndex) {
-											for (int i = lastIndex - 1; i >= myIndex; i--) {
-												select(siblings.get(i), true);	
-											}
-										}
-									}
-								}
-								// if the item is not selected yet, select it first
-								// otherwise trigger selection _only_ if the mouse button is primary, otherwise it has the effect that the right click context menu is disabled every time even if it is selected
-								else if (!tree.getSelectionModel().getSelectedItems().contains(TreeCell.this) || event.getButton() == MouseButton.PRIMARY) {
-									select(TreeCell.this, event.isControlDown() ^ tree.isInvertSelection());
-									event.consume();
-								}
-							}
-							// if double click, toggle expand
-							else if (event.getClickCount() == 2 && !TreeCell.this.getItem().leafProperty().get()) {
-								expanded.setValue(!expanded.getValue());
-								event.consume();
-							}
-						}
+						handleClick(event);
 					}
 				}
 			});
@@ -494,112 +841,37 @@ public class TreeCell<T> implements Refreshable, Focusable {
 			node.addEventHandler(KeyEvent.KEY_PRESSED, new EventHandler<KeyEvent>() {
 				@Override
 				public void handle(KeyEvent event) {
-					if (event.getCode() == KeyCode.DOWN) {
-						if (event.isControlDown() && item instanceof MovableTreeItem && !tree.isReadOnly()) {
-							TreeItem<T> move = ((MovableTreeItem<T>) item).move(Direction.DOWN);
-							if (move != null) {
-								TreeCell<T> treeCell = TreeCell.this.tree.getTreeCell(move);
-								if (treeCell != null) {
-									treeCell.select();
-									treeCell.focus();
-								}
-							}
-						}
-						else {
-							TreeCell.this.tree.getSelectionModel().selectNext();
-						}
-						event.consume();
-					}
-					else if (event.getCode() == KeyCode.UP) {
-						if (event.isControlDown() && item instanceof MovableTreeItem && !tree.isReadOnly()) {
-							TreeItem<T> move = ((MovableTreeItem<T>) item).move(Direction.UP);
-							if (move != null) {
-								TreeCell<T> treeCell = TreeCell.this.tree.getTreeCell(move);
-								if (treeCell != null) {
-									treeCell.select();
-									treeCell.focus();
-								}
-							}
-						}
-						else {
-							TreeCell.this.tree.getSelectionModel().selectPrevious();
-						}
-						event.consume();
-					}
-					// if you press right arrow, make sure it's expanded, if it is already open, select first child
-					else if (event.getCode() == KeyCode.RIGHT) {
-						if (event.isControlDown() && item instanceof MovableTreeItem && !tree.isReadOnly()) {
-							TreeItem<T> move = ((MovableTreeItem<T>) item).move(Direction.RIGHT);
-							if (move != null) {
-								TreeCell<T> treeCell = TreeCell.this.tree.getTreeCell(move);
-								if (treeCell != null) {
-									treeCell.select();
-									treeCell.focus();
-								}
-							}
-							event.consume();
-						}
-						else if (!getItem().leafProperty().getValue()) {
-							// expand this one if necessary
-							if (!expanded.getValue()) {
-								expanded.setValue(true);
-							}
-							else if (getChildrenAsMap().size() > 0) {
-								select(getCell(getItem().getChildren().get(0)), false);
-								if (tree.isAutoscrollOnSelect()) {
-									tree.autoscroll();
-								}
-							}
-							event.consume();
-						}
-					}
-					else if (event.getCode() == KeyCode.LEFT) {
-						if (event.isControlDown() && item instanceof MovableTreeItem && !tree.isReadOnly()) {
-							TreeItem<T> move = ((MovableTreeItem<T>) item).move(Direction.LEFT);
-							if (move != null) {
-								TreeCell<T> treeCell = TreeCell.this.tree.getTreeCell(move);
-								if (treeCell != null) {
-									treeCell.select();
-									treeCell.focus();
-								}
-							}
-						}
-						else if (!getItem().leafProperty().getValue() && expanded.getValue()) {
-							expanded.setValue(false);
-						}
-						else {
-							select(getParent(), false);
-							if (tree.isAutoscrollOnSelect()) {
-								tree.autoscroll();
-							}
-						}
-						event.consume();
-					}
+					handleKey(event);
 				}
 			});
 			
 			// if this node is hidden, it is enough to hide all the children visually (because it contains them)
 			// however you can't listen for visibility changes on children then because they remain "visible" for all intents and purposes
 			// so if visibility changes on this node, propagate it to the children! that way you can listen on all levels for visibility changes
-			node.visibleProperty().addListener(new ChangeListener<Boolean>() {
-				@Override
-				public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean newValue) {
-					if (expanded.getValue()) {
-						for (TreeCell<T> child : children.values())
-							child.getNode().visibleProperty().setValue(newValue);
+			if (!tree.isVirtualized()) {
+				node.visibleProperty().addListener(new ChangeListener<Boolean>() {
+					@Override
+					public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean newValue) {
+						if (expanded.getValue()) {
+							for (TreeCell<T> child : children.values())
+								child.getNode().visibleProperty().setValue(newValue);
+						}
 					}
-				}
-			});
+				});
+			}
 
-			node.addEventHandler(MouseEvent.ANY, new CloneEventHandler<MouseEvent>(node));
-			node.addEventHandler(DragEvent.ANY, new CloneEventHandler<DragEvent>(node));
-			node.addEventHandler(KeyEvent.ANY, new CloneEventHandler<KeyEvent>(node));
-			
 			// link the treecell to the root node so you can detect where an event has originated from
+			// the tree redelivers the events of child nodes to this node
 			node.setUserData(this);
-			node.getChildren().add(refreshItemContainer(false));
-			// bind the "managed" property to the "visibility" property so it does not take up space if it's invisible
-			node.managedProperty().bind(node.visibleProperty());
+			if (tree.isFlatCells()) {
+				// the visibility of the item display is already tied to hideSelf
+				syncChildren(false);
+			}
+			else {
+				node.getChildren().add(refreshItemContainer(false));
+				// bind the "managed" property to the "visibility" property so it does not take up space if it's invisible
+				node.managedProperty().bind(node.visibleProperty());
+			}
 			
 			if (item instanceof DisablableTreeItem) {
 				node.disableProperty().bind(((DisablableTreeItem<T>) item).disableProperty());
@@ -617,6 +889,39 @@ public class TreeCell<T> implements Refreshable, Focusable {
 			isDirty = true;
 			HBox.setHgrow(itemContainer, Priority.SOMETIMES);
 		}
+		syncChildren(force);
+		return itemContainer;
+	}
+	
+	/**
+	 * In virtualized mode we only need the child cells, not their nodes, the skin will request the nodes it actually shows
+	 */
+	private void refreshChildCells(boolean force) {
+		if (tree.isVirtualized()) {
+			syncChildren(force);
+		}
+		else {
+			refreshItemContainer(force);
+		}
+	}
+	
+	/**
+	 * Makes sure the children map reflects the children of the item, in non-virtualized mode the nodes of the children are (re)added to the item container
+	 */
+	private void syncChildren(boolean force) {
+		// a forced sync needs all the children so it ignores the budget
+		syncChildren(force, force ? 0 : tree.getMaterializationBudget(), true);
+	}
+	
+	/**
+	 * With a budget (in ms), large amounts of children are created in chunks, the rest is either scheduled on the tree or left to the caller
+	 */
+	private void syncChildren(boolean force, long budget, boolean scheduleRest) {
+		// the children are being modified in the background, we sync once that is done
+		if (isRefreshing && tree.isAsyncRefresh()) {
+			return;
+		}
+		boolean nested = !tree.isVirtualized() && itemContainer != null;
 		// try to auto-detect dirty nodes
 		if (getTree().isAutodetectDirty() && !item.leafProperty().getValue()) {
 			List<TreeItem<T>> itemChildren = item.getChildren();
@@ -636,60 +941,508 @@ public class TreeCell<T> implements Refreshable, Focusable {
 		if (isDirty && !item.leafProperty().getValue()) {
 			List<TreeItem<T>> itemChildren = item.getChildren();
 			// remove dead values from the children map
-			// remove all values from the itemContainer so they can be readded later _in the correct order_
-			// this should not be a problem because they remain the same cell (with the same node)
-			// however because we disconnect it (for the briefest of moments) from the scene, this might give errors at some point, to be seen
-			Iterator<TreeItem<T>> iterator = children.keySet().iterator();
+			Set<TreeItem<T>> current = new HashSet<TreeItem<T>>(itemChildren);
+			Iterator<Map.Entry<TreeItem<T>, TreeCell<T>>> iterator = children.entrySet().iterator();
 			while (iterator.hasNext()) {
-				TreeItem<T> next = iterator.next();
-				if (children.get(next).isLoaded) {
-					itemContainer.getChildren().remove(children.get(next).getNode());
-				}
-				if (!itemChildren.contains(next)) {
+				Map.Entry<TreeItem<T>, TreeCell<T>> next = iterator.next();
+				if (!current.contains(next.getKey())) {
 					iterator.remove();
+					next.getValue().detach();
 				}
 			}
-			// we need to copy the remaining (existing) children to a temporary map
-			Map<TreeItem<T>, TreeCell<T>> temporaryMap = new HashMap<TreeItem<T>, TreeCell<T>>(children);
-			// they will be readded when we loop over the children
-			children.clear();
-			
-			// now we loop over the children of the item and add them again in the correct order
+			// if the remaining children are still in the correct order and new children are only appended, we can simply add them
+			// otherwise we rebuild the map in the correct order, this does not affect the cells themselves
+			// a linked map has no positional inserts so the diff can't be applied to it, the rebuild is linear like the row index that follows it
+			boolean appendOnly = true;
+			boolean appending = false;
+			Iterator<TreeItem<T>> existing = children.keySet().iterator();
 			for (TreeItem<T> child : itemChildren) {
-				TreeCell<T> cell = temporaryMap.containsKey(child) ? temporaryMap.get(child) : new TreeCell<T>(tree, child, this);
-				children.put(child, cell);
+				if (children.containsKey(child)) {
+					if (appending || !existing.hasNext() || !existing.next().equals(child)) {
+						appendOnly = false;
+						break;
+					}
+				}
+				else {
+					appending = true;
+				}
+			}
+			if (!(children instanceof LinkedHashMap) && !itemChildren.isEmpty()) {
+				children = new LinkedHashMap<TreeItem<T>, TreeCell<T>>();
+			}
+			if (!appendOnly) {
+				Map<TreeItem<T>, TreeCell<T>> reordered = new LinkedHashMap<TreeItem<T>, TreeCell<T>>((itemChildren.size() * 4 / 3) + 1);
+				for (TreeItem<T> child : itemChildren) {
+					TreeCell<T> cell = children.get(child);
+					reordered.put(child, cell == null ? new TreeCell<T>(tree, child, this) : cell);
+				}
+				children = reordered;
+			}
+			else if (children.size() != itemChildren.size()) {
+				// with a budget, large amounts of children are created in chunks spread over multiple pulses
+				long started = System.currentTimeMillis();
+				for (int i = 0; i < itemChildren.size(); i++) {
+					TreeItem<T> child = itemChildren.get(i);
+					if (!children.containsKey(child)) {
+						TreeCell<T> cell = new TreeCell<T>(tree, child, this);
+						children.put(child, cell);
+						if (budget > 0) {
+							// building the node is the expensive part, it counts towards the budget
+							if (nested && expanded.get()) {
+								cell.getNode();
+							}
+							if (i < itemChildren.size() - 1 && System.currentTimeMillis() - started >= budget) {
+								if (scheduleRest) {
+									materializeLater(itemChildren.size());
+								}
+								else {
+									materializing = true;
+								}
+								break;
+							}
+						}
+					}
+					if (i == itemChildren.size() - 1 && materializing) {
+						materializing = false;
+						if (tree.getMaterializationListener() != null) {
+							tree.getMaterializationListener().progress(this, children.size(), itemChildren.size());
+						}
+					}
+				}
+			}
+			
+			// if the child is currently selected, add it again to the selection
+			// TODO: need to make sure this doesn't backfire with nested items that are identical
+			Set<Object> selectedValues = new HashSet<Object>();
+			if (expanded.get() || force) {
+				for (TreeCell<T> selected : getTree().getSelectionModel().getSelectedItems()) {
+					selectedValues.add(selected.getItem().itemProperty().get());
+				}
+			}
+			
+			// the nodes that should be in the item container
+			List<Node> nodes = new ArrayList<Node>();
+			if (nested) {
+				nodes.add(itemDisplay);
+			}
+			if (nested && loadingNode != null && !tree.isFixedRowHeight()) {
+				nodes.add(loadingNode);
+			}
+			for (TreeCell<T> cell : children.values()) {
 				// because we are readding the node, we need to take into account the expanded setting
 				if (expanded.get() || force) {
-					itemContainer.getChildren().add(children.get(child).getNode());
-					cell.getNode().visibleProperty().setValue(expanded.getValue());
+					if (nested) {
+						nodes.add(cell.getNode());
+						cell.getNode().visibleProperty().setValue(expanded.getValue());
+					}
 				}
 				// if we don't actually add the child node (so the parent is collapsed), its "isLoaded" must be set to false again
 				// otherwise if we expand the parent again, it won't be loaded
 				else {
 					cell.isLoaded = false;
 				}
-				// for new cells (and it doesn't matter for old cells): also set the visible cell for expansion
-				cell.visibleCell.setValue(expanded.getValue() ? cell : TreeCell.this);
-				
-				// if the child is currently selected, add it again to the selection
-				// TODO: need to make sure this doesn't backfire with nested items that are identical
-				if (expanded.get() || force) {
-					for (TreeCell<T> selected : new ArrayList<TreeCell<T>>(getTree().getSelectionModel().getSelectedItems())) {
-						if (selected.getItem().itemProperty().get().equals(cell.getItem().itemProperty().get())) {
-							cell.select(true);
+				if (!selectedValues.isEmpty() && !cell.selected.get() && selectedValues.contains(cell.getItem().itemProperty().get())) {
+					cell.select(true);
+				}
+			}
+			// only the actual differences are applied to the scene graph, unchanged children remain attached
+			if (nested) {
+				ListDiff.apply(itemContainer.getChildren(), nodes);
+			}
+			isDirty = false;
+			invalidateWidth();
+			rebuildRowIndex();
+			tree.invalidateRows();
+		}
+	}
+	
+	private void materializeLater(int total) {
+		materializing = true;
+		MaterializationListener<T> listener = tree.getMaterializationListener();
+		if (listener == null || listener.progress(this, children.size(), total)) {
+			tree.scheduleMaterialization(this);
+		}
+		else {
+			materializing = false;
+		}
+	}
+	
+	/**
+	 * Creates the next chunk of child cells
+	 */
+	void materialize() {
+		isDirty = true;
+		refreshChildCells(false);
+	}
+	
+	/**
+	 * Called when the cell is removed from its parent, the cell and all its children are no longer part of the tree and are disposed
+	 */
+	void detach() {
+		Deque<TreeCell<T>> cells = new ArrayDeque<TreeCell<T>>();
+		cells.push(this);
+		while (!cells.isEmpty()) {
+			TreeCell<T> cell = cells.pop();
+			cell.dispose();
+			for (TreeCell<T> child : cell.children.values()) {
+				cells.push(child);
+			}
+		}
+	}
+	
+	/**
+	 * Releases everything that links the cell to the tree, the item and its parent
+	 * Note that the selection is left alone: a refresh relies on it to reselect the replacement cells
+	 */
+	private void dispose() {
+		tree.unregisterCell(this);
+		if (materializing) {
+			tree.cancelMaterialization(this);
+		}
+		if (visibleCell != null) {
+			tree.unobserveVisibleCell(this);
+		}
+		cancelLoad();
+		for (Runnable disposer : disposers) {
+			disposer.run();
+		}
+		disposers.clear();
+		if (nameIndex != null) {
+			nameIndex.dispose();
+			nameIndex = null;
+		}
+		if (anchorsBound) {
+			leftAnchorX.unbind();
+			leftAnchorY.unbind();
+			rightAnchorX.unbind();
+			rightAnchorY.unbind();
+		}
+		if (treeLayoutX != null) {
+			treeLayoutX.unbind();
+		}
+		if (treeLayoutY != null) {
+			treeLayoutY.unbind();
+			tree.untrackPosition(this);
+		}
+		releaseNode();
+	}
+	
+	/**
+	 * Cells that others depend on are never evicted: their anchors, visible cell or layout position are observed or they are selected
+	 */
+	private boolean isPinned() {
+		return visibleCell != null || treeLayoutX != null || treeLayoutY != null || selected.get();
+	}
+	
+	/**
+	 * Releases the nodes of the descendants of this collapsed cell, they are rebuilt once the cell is expanded again
+	 * If requested, the child cells themselves are released as well, they are recreated when the children are synced again
+	 * Child subtrees that contain a pinned cell are left alone entirely
+	 */
+	void evict(boolean releaseCells) {
+		if (expanded.get()) {
+			return;
+		}
+		boolean released = false;
+		Iterator<Map.Entry<TreeItem<T>, TreeCell<T>>> iterator = children.entrySet().iterator();
+		while (iterator.hasNext()) {
+			TreeCell<T> child = iterator.next().getValue();
+			List<TreeCell<T>> subtree = new ArrayList<TreeCell<T>>();
+			boolean pinned = false;
+			Deque<TreeCell<T>> cells = new ArrayDeque<TreeCell<T>>();
+			cells.push(child);
+			while (!cells.isEmpty() && !pinned) {
+				TreeCell<T> cell = cells.pop();
+				pinned = cell.isPinned();
+				subtree.add(cell);
+				for (TreeCell<T> grandChild : cell.children.values()) {
+					cells.push(grandChild);
+				}
+			}
+			if (!pinned) {
+				if (releaseCells) {
+					iterator.remove();
+					child.detach();
+					released = true;
+				}
+				else {
+					for (TreeCell<T> cell : subtree) {
+						cell.releaseNode();
+					}
+					released = true;
+				}
+			}
+		}
+		if (released) {
+			// the next sync will recreate the missing cells and nodes in the correct order
+			isDirty = true;
+			rebuildRowIndex();
+			invalidateWidth();
+			tree.invalidateRows();
+		}
+	}
+	
+	private void releaseNode() {
+		if (node != null) {
+			if (node.getParent() instanceof Pane) {
+				((Pane) node.getParent()).getChildren().remove(node);
+			}
+			node.managedProperty().unbind();
+			node.disableProperty().unbind();
+			if (nodeDisposers != null) {
+				for (Runnable disposer : nodeDisposers) {
+					disposer.run();
+				}
+				nodeDisposers = null;
+			}
+			node = null;
+			itemContainer = null;
+			itemDisplay = null;
+			displayIcon = null;
+			loadingNode = null;
+			cellValue = null;
+			cellWidth = -1;
+			if (isLoaded) {
+				isLoaded = false;
+				if (parent != null) {
+					parent.invalidateWidth();
+				}
+			}
+			tree.nodeReleased();
+		}
+	}
+	
+	/**
+	 * Applies the (deferred) changes to the children
+	 */
+	void applyChanges() {
+		refreshChildCells(false);
+	}
+	
+	private void rebuildRowIndex() {
+		childList = new ArrayList<TreeCell<T>>(children.values());
+		int [] counts = new int[childList.size()];
+		for (int i = 0; i < counts.length; i++) {
+			TreeCell<T> child = childList.get(i);
+			child.childIndex = i;
+			counts[i] = child.visibleCount;
+		}
+		rowIndex = new RowIndex(counts);
+		updateVisibleCount();
+	}
+	
+	private boolean isIndexed(TreeCell<T> child) {
+		return childList != null && child.childIndex >= 0 && child.childIndex < childList.size() && childList.get(child.childIndex) == child;
+	}
+	
+	/**
+	 * Recalculates the visible count and pushes the difference up to the parents
+	 */
+	private void updateVisibleCount() {
+		TreeCell<T> cell = this;
+		while (cell != null) {
+			int count = 1 + (cell.expanded.get() && cell.rowIndex != null && !cell.item.leafProperty().get() ? cell.rowIndex.total() : 0);
+			int delta = count - cell.visibleCount;
+			if (delta == 0) {
+				break;
+			}
+			cell.visibleCount = count;
+			TreeCell<T> parent = cell.parent;
+			if (parent == null || !parent.isIndexed(cell)) {
+				break;
+			}
+			parent.rowIndex.add(cell.childIndex, delta);
+			cell = parent;
+		}
+	}
+	
+	/**
+	 * The row of this cell relative to the root cell (which is row 0) or -1 if one of the parents is collapsed
+	 */
+	int getRow() {
+		int row = 0;
+		TreeCell<T> cell = this;
+		while (cell.parent != null) {
+			TreeCell<T> parent = cell.parent;
+			if (!parent.expanded.get() || parent.item.leafProperty().get() || !parent.isIndexed(cell)) {
+				return -1;
+			}
+			row += 1 + parent.rowIndex.prefix(cell.childIndex);
+			cell = parent;
+		}
+		return row;
+	}
+	
+	/**
+	 * The cell at the given row relative to this cell (which is row 0)
+	 */
+	TreeCell<T> getRowCell(int row) {
+		if (row < 0 || row >= visibleCount) {
+			return null;
+		}
+		TreeCell<T> cell = this;
+		while (row > 0) {
+			// skip the cell itself
+			row--;
+			int index = cell.rowIndex.find(row);
+			row -= cell.rowIndex.prefix(index);
+			cell = cell.childList.get(index);
+		}
+		return cell;
+	}
+	
+	int getVisibleCount() {
+		return visibleCount;
+	}
+	
+	/**
+	 * Handles a click on this cell, in a rendered tree the skin calls this for the cell in the clicked row
+	 */
+	void handleClick(MouseEvent event) {
+		if (tree.getClickHandler() != null) {
+			tree.getClickHandler().handle(event);
+		}
+		// if you didn't consume it, do default stuff
+		if (!event.isConsumed()) {
+			// at the very least, request focus
+			tree.getRootCell().focus();
+			// single click = select
+			if (event.getClickCount() == 1) {
+				if ((event.isControlDown() ^ tree.isInvertSelection()) && tree.getSelectionModel().getSelectedItems().contains(this)) {
+					tree.getSelectionModel().getSelectedItems().remove(this);
+					event.consume();
+				}
+				// if we have shift down and don't have invert selection on (which is weird currently)
+				// we do a multiselect from the last selected
+				else if (event.isShiftDown() && !tree.isInvertSelection()) {
+					ObservableList<TreeCell<T>> current = tree.getSelectionModel().getSelectedItems();
+					TreeCell<T> last = current.get(current.size() - 1);
+					// we keep stepping to the next item until we find the current one
+					List<TreeCell<T>> siblings = last.getParent().getChildren();
+					
+					int lastIndex = siblings.indexOf(last);
+					int myIndex = siblings.indexOf(this);
+					
+					// if we are not part of the same parent, we don't do anything atm. walking the tree can be difficult, especially for lazily loaded trees
+					if (myIndex >= 0) {
+						// we are further than the last index, select everything in between
+						if (myIndex > lastIndex) {
+							for (int i = lastIndex + 1; i <= myIndex; i++) {
+								select(siblings.get(i), true);
+							}
+						}
+						else if (myIndex < lastIndex) {
+							for (int i = lastIndex - 1; i >= myIndex; i--) {
+								select(siblings.get(i), true);	
+							}
 						}
 					}
 				}
+				// if the item is not selected yet, select it first
+				// otherwise trigger selection _only_ if the mouse button is primary, otherwise it has the effect that the right click context menu is disabled every time even if it is selected
+				else if (!tree.getSelectionModel().getSelectedItems().contains(this) || event.getButton() == MouseButton.PRIMARY) {
+					select(this, event.isControlDown() ^ tree.isInvertSelection());
+					event.consume();
+				}
+			}
+			// if double click, toggle expand
+			else if (event.getClickCount() == 2 && !getItem().leafProperty().get()) {
+				expanded.setValue(!expanded.getValue());
+				event.consume();
 			}
-			isDirty = false;
 		}
-		return itemContainer;
+	}
+	
+	void handleKey(KeyEvent event) {
+		if (event.getCode() == KeyCode.DOWN) {
+			if (event.isControlDown() && item instanceof MovableTreeItem && !tree.isReadOnly()) {
+				TreeItem<T> move = ((MovableTreeItem<T>) item).move(Direction.DOWN);
+				if (move != null) {
+					TreeCell<T> treeCell = tree.getTreeCell(move);
+					if (treeCell != null) {
+						treeCell.select();
+						treeCell.focus();
+					}
+				}
+			}
+			else {
+				tree.getSelectionModel().selectNext();
+			}
+			event.consume();
+		}
+		else if (event.getCode() == KeyCode.UP) {
+			if (event.isControlDown() && item instanceof MovableTreeItem && !tree.isReadOnly()) {
+				TreeItem<T> move = ((MovableTreeItem<T>) item).move(Direction.UP);
+				if (move != null) {
+					TreeCell<T> treeCell = tree.getTreeCell(move);
+					if (treeCell != null) {
+						treeCell.select();
+						treeCell.focus();
+					}
+				}
+			}
+			else {
+				tree.getSelectionModel().selectPrevious();
+			}
+			event.consume();
+		}
+		// if you press right arrow, make sure it's expanded, if it is already open, select first child
+		else if (event.getCode() == KeyCode.RIGHT) {
+			if (event.isControlDown() && item instanceof MovableTreeItem && !tree.isReadOnly()) {
+				TreeItem<T> move = ((MovableTreeItem<T>) item).move(Direction.RIGHT);
+				if (move != null) {
+					TreeCell<T> treeCell = tree.getTreeCell(move);
+					if (treeCell != null) {
+						treeCell.select();
+						treeCell.focus();
+					}
+				}
+				event.consume();
+			}
+			else if (!getItem().leafProperty().getValue()) {
+				// expand this one if necessary
+				if (!expanded.getValue()) {
+					expanded.setValue(true);
+				}
+				else if (!getItem().getChildren().isEmpty()) {
+					select(getChildCell(getItem().getChildren().get(0)), false);
+					if (tree.isAutoscrollOnSelect()) {
+						tree.autoscroll();
+					}
+				}
+				event.consume();
+			}
+		}
+		else if (event.getCode() == KeyCode.LEFT) {
+			if (event.isControlDown() && item instanceof MovableTreeItem && !tree.isReadOnly()) {
+				TreeItem<T> move = ((MovableTreeItem<T>) item).move(Direction.LEFT);
+				if (move != null) {
+					TreeCell<T> treeCell = tree.getTreeCell(move);
+					if (treeCell != null) {
+						treeCell.select();
+						treeCell.focus();
+					}
+				}
+			}
+			else if (!getItem().leafProperty().getValue() && expanded.getValue()) {
+				expanded.setValue(false);
+			}
+			else {
+				select(getParent(), false);
+				if (tree.isAutoscrollOnSelect()) {
+					tree.autoscroll();
+				}
+			}
+			event.consume();
+		}
 	}
 	
 	private HBox buildItemDisplay() {
 		if (itemDisplay == null) {
 			itemDisplay = new HBox();
-			displayIcon = new HBox();
+			displayIcon = new ImageView();
+			// the transparent parts of the icon should be clickable as well
+			displayIcon.setPickOnBounds(true);
 			
 			itemDisplay.visibleProperty().bind(hideSelf.not());
 			itemDisplay.managedProperty().bind(hideSelf.not());
@@ -698,7 +1451,12 @@ public class TreeCell<T> implements Refreshable, Focusable {
 			
 			itemDisplay.getChildren().add(displayIcon);
 			itemDisplay.setAlignment(Pos.CENTER_LEFT);
-			displayIcon.setAlignment(Pos.CENTER);
+			// in a nested layout with a fixed row height, every row has to be exactly that high
+			if (tree.isFixedRowHeight() && !tree.isVirtualized()) {
+				itemDisplay.minHeightProperty().bind(tree.rowHeightProperty());
+				itemDisplay.prefHeightProperty().bind(tree.rowHeightProperty());
+				itemDisplay.maxHeightProperty().bind(tree.rowHeightProperty());
+			}
 			refreshItemDisplayIcon();
 			// toggle expanded if you click on it
 			displayIcon.addEventFilter(MouseEvent.MOUSE_CLICKED, new EventHandler<MouseEvent>() {
@@ -707,10 +1465,11 @@ public class TreeCell<T> implements Refreshable, Focusable {
 					expanded.setValue(!expanded.getValue());
 				}
 			});
-			displayIcon.getStyleClass().add("jfx-tree-icon");
+			// the icon is no longer wrapped in a region so region styling (padding, background, sizes) does not apply, hence the different style class
+			displayIcon.getStyleClass().add("jfx-tree-icon-view");
 			if (item.graphicProperty().isNotNull().getValue())
 				itemDisplay.getChildren().add(item.graphicProperty().getValue());
-			item.graphicProperty().addListener(new ChangeListener<Node>() {
+			listenWhileShown(item.graphicProperty(), new ChangeListener<Node>() {
 				@Override
 				public void changed(ObservableValue<? extends Node> arg0, Node oldNode, Node newNode) {
 					// remove the old one
@@ -733,7 +1492,7 @@ public class TreeCell<T> implements Refreshable, Focusable {
 					Tooltip.install(itemDisplay, tooltipObjectProperty.get());
 				}
 				// listen for changes
-				tooltipProperty.addListener(new ChangeListener<String>() {
+				listenWhileShown(tooltipProperty, new ChangeListener<String>() {
 					@Override
 					public void changed(ObservableValue<? extends String> observable, String oldValue, String newValue) {
 						if (tooltipObjectProperty.get() != null) {
@@ -765,26 +1524,10 @@ public class TreeCell<T> implements Refreshable, Focusable {
 		}
 	}
 	
-	private void refreshItemDisplayIcon() {
+	void refreshItemDisplayIcon() {
 		// it may not have been instantiated yet, for example when changing the leaf property really quickly
 		if (displayIcon != null) {
-			displayIcon.getChildren().clear();
-			if (!item.leafProperty().getValue()) {
-				displayIcon.getChildren().add(expanded.get() ? expandedIcon : collapsedIcon);
-				// listen to changes
-				expanded.addListener(new ChangeListener<Boolean>() {
-					@Override
-					public void changed(ObservableValue<? extends Boolean> arg0, Boolean arg1, Boolean newValue) {
-						// expanded
-						if (newValue)
-							displayIcon.getChildren().set(0, expandedIcon);
-						else
-							displayIcon.getChildren().set(0, collapsedIcon);
-					}
-				});
-			}
-			else
-				displayIcon.getChildren().add(itemIcon);
+			displayIcon.setImage(tree.getIconSet().getIcon(item, expanded.get()));
 		}
 	}
 
@@ -793,18 +1536,98 @@ public class TreeCell<T> implements Refreshable, Focusable {
 		if (this.item.getChildren().contains(item) && !children.containsKey(item)) {
 			isDirty = true;
 		}
-		refreshItemContainer(true);
+		refreshChildCells(true);
 		getNode();
 		return children.get(item);
 	}
 	
+	/**
+	 * Like getCell() but in virtualized mode no nodes are built, the skin builds them once the cell is in the viewport
+	 */
+	private TreeCell<T> getChildCell(TreeItem<T> item) {
+		if (!tree.isVirtualized()) {
+			return getCell(item);
+		}
+		initialize();
+		if (this.item.getChildren().contains(item) && !children.containsKey(item)) {
+			isDirty = true;
+		}
+		syncChildren(true);
+		return children.get(item);
+	}
+	
+	/**
+	 * All the child cells, regardless of the materialization budget
+	 */
+	Collection<TreeCell<T>> getAllChildCells() {
+		initialize();
+		if (materializing) {
+			isDirty = true;
+		}
+		refreshChildCells(true);
+		return children.values();
+	}
+	
+	/**
+	 * Creates the child cells within the given budget (in ms, 0 or less is unlimited), returns true once all of them exist
+	 * This allows a task to work through a cell with a large amount of children in slices
+	 */
+	boolean materializeChildren(long budget) {
+		initialize();
+		if (materializing || children.size() != item.getChildren().size()) {
+			isDirty = true;
+		}
+		syncChildren(false, budget, false);
+		return !materializing;
+	}
+	
+	/**
+	 * The child cells without forcing the creation of their nodes
+	 */
+	Collection<TreeCell<T>> getChildCells() {
+		initialize();
+		syncChildren(false);
+		return children.values();
+	}
+	
+	/**
+	 * The amount of spacers in front of this cell, a hidden parent does not add a spacer
+	 */
+	int getIndent() {
+		int indent = 0;
+		TreeCell<T> current = this;
+		while (current.parent != null) {
+			if (!current.parent.hideSelf.get()) {
+				indent++;
+			}
+			current = current.parent;
+		}
+		return indent;
+	}
+	
+	/**
+	 * With a fixed row height the tree calls this when the rows have changed
+	 */
+	void updateTreeLayoutY() {
+		if (treeLayoutY != null && !treeLayoutY.isBound()) {
+			treeLayoutY.set(tree.getLayoutY(this));
+		}
+	}
+	
 	public HBox getItemDisplay() {
 		initialize();
 		getNode();
 		return itemDisplay;
 	}
 	
+	/**
+	 * With flat cells there is no item container, the item display is the node of the cell
+	 * @throws IllegalStateException "Flat cells have no item container, use getItemDisplay()" if the tree uses flat cells
+	 */
 	public VBox getItemContainer() {
+		if (tree.isFlatCells()) {
+			throw new IllegalStateException("Flat cells have no item container, use getItemDisplay()");
+		}
 		initialize();
 		getNode();
 		return itemContainer;
@@ -815,6 +1638,13 @@ public class TreeCell<T> implements Refreshable, Focusable {
 			cellValue = tree.getCellValueFactory().call(item);
 			cellValue.cellProperty().setValue(this);
 			cellValue.getNode().getStyleClass().add("treeCellValue");
+			cellValue.getNode().widthProperty().addListener(new ChangeListener<Number>() {
+				@Override
+				public void changed(ObservableValue<? extends Number> arg0, Number arg1, Number arg2) {
+					cellWidth = -1;
+					invalidateWidth();
+				}
+			});
 		}
 		return cellValue;
 	}
@@ -866,53 +1696,49 @@ public class TreeCell<T> implements Refreshable, Focusable {
 		return "TreeCell: " + item; 
 	}
 	
-	/**
-	 * Each TreeCell node can consist of numerous child nodes, each of those child nodes can create an event
-	 * The target of this class is to take events from any child node and refire it as an event from this node
-	 * This node has a link to the treecell (using userdata) so you can catch them all on the root 
-	 */
-	private static class CloneEventHandler<T extends Event> implements EventHandler<T> {
-
-		private HBox node;
-		
-		public CloneEventHandler(HBox node) {
-			this.node = node;
-		}
-		
-		@Override
-		public void handle(T event) {
-			// if the target is already this node, don't fire it again
-			// otherwise if the target is already pointed at a specific treecell-linked node, don't fire it again, it will bubble up naturally
-			if (!event.isConsumed() && !event.getTarget().equals(node) && (!(event.getTarget() instanceof Node && ((Node) event.getTarget()).getUserData() instanceof TreeCell))) {
-				Event copy = event.copyFor(node, node);
-				// consume the original event
-				event.consume();
-				node.fireEvent(copy);
-			}
-		}
-	}
-	
 	public double getLocalWidth() {
 		if (parent != null && (!isLoaded || !parent.expanded.get() || !getNode().visibleProperty().get())) {
 			return 0;
 		}
-		getCellValue().getNode().autosize();
-		double width = Math.max(50, getCellValue().getNode().widthProperty().get());
-		double biggestChild = 0;
-		if (expanded.get()) {
-			for (final TreeCell<T> child : children.values()) {
-				double childWidth = child.getLocalWidth();
-				if (childWidth > biggestChild) {
-					biggestChild = childWidth;
+		// only recalculated if something changed in this subtree
+		if (subtreeWidth < 0) {
+			if (cellWidth < 0) {
+				getCellValue().getNode().autosize();
+				cellWidth = Math.max(50, getCellValue().getNode().widthProperty().get());
+			}
+			double biggestChild = 0;
+			if (expanded.get()) {
+				for (final TreeCell<T> child : children.values()) {
+					double childWidth = child.getLocalWidth();
+					if (childWidth > biggestChild) {
+						biggestChild = childWidth;
+					}
 				}
 			}
+			subtreeWidth = cellWidth + biggestChild;
+		}
+		return subtreeWidth;
+	}
+	
+	/**
+	 * The cached width of this cell and all its parents is no longer correct
+	 * If a cell is invalid, so are its parents so we can stop at the first one that is already invalid
+	 */
+	private void invalidateWidth() {
+		TreeCell<T> cell = this;
+		while (cell != null && cell.subtreeWidth >= 0) {
+			cell.subtreeWidth = -1;
+			cell = cell.parent;
 		}
-		return width + biggestChild;
 	}
 
 	@Override
 	public void focus() {
-		if (getCellValue() instanceof Focusable) {
+		// a rendered tree has no nodes for the cells, the keyboard events go through the tree itself
+		if (tree.isRendered()) {
+			tree.requestFocus();
+		}
+		else if (getCellValue() instanceof Focusable) {
 			((Focusable) getCellValue()).focus();
 		}
 		else {
@@ -22,6 +22,7 @@ import javafx.beans.property.ObjectProperty;
 import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.value.ChangeListener;
 import javafx.beans.value.ObservableValue;
+import javafx.beans.value.WeakChangeListener;
 import javafx.event.EventHandler;
 import javafx.scene.Node;
 import javafx.scene.control.Label;
@@ -45,6 +46,12 @@ public class TreeCellValueLabel<T> implements TreeCellValue<T> {
 	private boolean isEditing = false;
 	private ObjectProperty<TreeCell<T>> cell = new SimpleObjectProperty<TreeCell<T>>();
 	private CellDescriptor cellDescriptor;
+	private ChangeListener<T> itemListener = new ChangeListener<T>() {
+		@Override
+		public void changed(ObservableValue<? extends T> arg0, T oldValue, T newValue) {
+			label.setText(marshallable.marshal(newValue));
+		}
+	};
 	
 	TreeCellValueLabel(final TreeItem<T> item, Marshallable<T> marshallable, Updateable<T> updateable, CellDescriptor cellDescriptor) {
 		this.item = item;
@@ -52,12 +59,8 @@ public class TreeCellValueLabel<T> implements TreeCellValue<T> {
 		this.updateable = updateable;
 		this.cellDescriptor = cellDescriptor;
 		
-		this.item.itemProperty().addListener(new ChangeListener<T>() {
-			@Override
-			public void changed(ObservableValue<? extends T> arg0, T oldValue, T newValue) {
-				label.setText(TreeCellValueLabel.this.marshallable.marshal(newValue));
-			}
-		});
+		// the item can outlive the cell, the listener is kept alive by this label
+		this.item.itemProperty().addListener(new WeakChangeListener<T>(itemListener));
 		// initial load for label
 		refresh();
 		
@@ -0,0 +1,100 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import javafx.event.Event;
+import javafx.event.EventDispatchChain;
+import javafx.event.EventDispatcher;
+import javafx.scene.Node;
+import javafx.scene.input.DragEvent;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+
+/**
+ * Each treecell node can consist of numerous child nodes, each of those child nodes can be the target of an event
+ * Once the child nodes have had their chance to handle the event, this dispatcher redelivers it with the node of the owning treecell as target
+ * That node has a link to the treecell (using userdata) so you can catch them all on the root
+ *
+ * The original event does not travel further up than the tree, only the redelivered one does
+ */
+class TreeEventDispatcher implements EventDispatcher {
+
+	private Tree<?> tree;
+	private EventDispatcher original;
+
+	TreeEventDispatcher(Tree<?> tree, EventDispatcher original) {
+		this.tree = tree;
+		this.original = original;
+	}
+
+	@Override
+	public Event dispatchEvent(Event event, final EventDispatchChain tail) {
+		if (!isRedeliverable(event)) {
+			return original.dispatchEvent(event, tail);
+		}
+		// we step in between the tree and its children: after the children are done with it but before the tree handles it
+		return original.dispatchEvent(event, new EventDispatchChain() {
+			@Override
+			public EventDispatchChain append(EventDispatcher eventDispatcher) {
+				return tail.append(eventDispatcher);
+			}
+			@Override
+			public EventDispatchChain prepend(EventDispatcher eventDispatcher) {
+				return tail.prepend(eventDispatcher);
+			}
+			@Override
+			public Event dispatchEvent(Event event) {
+				Event result = tail.dispatchEvent(event);
+				if (result != null && result.getTarget() instanceof Node) {
+					Node cellNode = getCellNode((Node) result.getTarget());
+					if (cellNode != null && cellNode != result.getTarget()) {
+						cellNode.fireEvent(result.copyFor(cellNode, cellNode));
+						// the original is considered consumed
+						return null;
+					}
+				}
+				return result;
+			}
+		});
+	}
+
+	private boolean isRedeliverable(Event event) {
+		if (event instanceof MouseEvent) {
+			// entered and exited are specific to the node they are targeted at, redelivering them only generates noise
+			if (event.getEventType() == MouseEvent.MOUSE_ENTERED || event.getEventType() == MouseEvent.MOUSE_EXITED
+					|| event.getEventType() == MouseEvent.MOUSE_ENTERED_TARGET || event.getEventType() == MouseEvent.MOUSE_EXITED_TARGET) {
+				return false;
+			}
+			return tree.isRedeliverMouseMoved() || event.getEventType() != MouseEvent.MOUSE_MOVED;
+		}
+		return event instanceof DragEvent || event instanceof KeyEvent;
+	}
+
+	/**
+	 * The node of the closest treecell that contains the given node
+	 */
+	private Node getCellNode(Node node) {
+		while (node != null && node != tree) {
+			if (node.getUserData() instanceof TreeCell) {
+				return node;
+			}
+			node = node.getParent();
+		}
+		return null;
+	}
+}
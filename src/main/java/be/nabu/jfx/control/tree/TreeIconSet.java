@@ -0,0 +1,31 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import javafx.scene.image.Image;
+
+/**
+ * Provides the icons in front of the cells, the images are shared by all the cells that use them
+ * Each cell has a single icon node that shows the image for its current state
+ */
+public interface TreeIconSet {
+	/**
+	 * The icon for the given item, for leaves the expanded state is meaningless
+	 */
+	public Image getIcon(TreeItem<?> item, boolean expanded);
+}
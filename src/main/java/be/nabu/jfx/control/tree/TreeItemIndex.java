@@ -0,0 +1,270 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.util.Callback;
+
+/**
+ * An alternative to TreeUtils.find() for large models: it maps the values (or a key derived from them) to the tree items that contain them
+ *
+ * The index is built lazily: the children of an item are only requested when a lookup can not be answered with what is already indexed
+ * Once the children of an item are indexed, the index listens to them and stays up to date
+ * If a value occurs multiple times, all the items are indexed but there is no guarantee which of them is returned
+ *
+ * The amount of indexed keys can be capped, the least recently used ones are evicted first
+ * Once something is evicted, a lookup that can't be answered by the index falls back to scanning the tree
+ */
+public class TreeItemIndex<T> {
+
+	private TreeItem<T> root;
+	private Callback<T, ?> keyExtractor;
+	private Map<Object, List<TreeItem<T>>> items;
+	/**
+	 * The items whose children are indexed
+	 */
+	private Map<TreeItem<T>, ListChangeListener<TreeItem<T>>> observed = new IdentityHashMap<TreeItem<T>, ListChangeListener<TreeItem<T>>>();
+	/**
+	 * The items whose children still need to be indexed
+	 */
+	private Deque<TreeItem<T>> frontier = new ArrayDeque<TreeItem<T>>();
+	private Set<TreeItem<T>> pending = Collections.newSetFromMap(new IdentityHashMap<TreeItem<T>, Boolean>());
+	/**
+	 * Whether the index contains everything it has seen, this is no longer the case once something is evicted
+	 */
+	private boolean complete = true;
+
+	public TreeItemIndex(TreeItem<T> root) {
+		this(root, null, Integer.MAX_VALUE);
+	}
+
+	@SuppressWarnings("serial")
+	public TreeItemIndex(TreeItem<T> root, Callback<T, ?> keyExtractor, final int maxSize) {
+		this.root = root;
+		this.keyExtractor = keyExtractor;
+		this.items = new LinkedHashMap<Object, List<TreeItem<T>>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, List<TreeItem<T>>> eldest) {
+				if (size() > maxSize) {
+					complete = false;
+					return true;
+				}
+				return false;
+			}
+		};
+		addToFrontier(root);
+	}
+
+	public TreeItem<T> findValue(T value) {
+		return find(getKey(value));
+	}
+
+	public TreeItem<T> find(Object key) {
+		// items without a value are not indexed
+		if (key == null) {
+			return null;
+		}
+		TreeItem<T> item = get(key);
+		// index more of the tree until we find it
+		while (item == null && !frontier.isEmpty()) {
+			TreeItem<T> next = frontier.pop();
+			if (pending.remove(next)) {
+				observe(next);
+				item = get(key);
+			}
+		}
+		if (item == null && !complete) {
+			item = scan(key);
+			if (item != null) {
+				add(key, item);
+			}
+		}
+		return item;
+	}
+
+	private TreeItem<T> get(Object key) {
+		List<TreeItem<T>> list = items.get(key);
+		if (list == null) {
+			return null;
+		}
+		Iterator<TreeItem<T>> iterator = list.iterator();
+		while (iterator.hasNext()) {
+			TreeItem<T> item = iterator.next();
+			if (equals(key, getKey(item))) {
+				return item;
+			}
+			// the value of the item has changed since it was indexed
+			iterator.remove();
+			complete = false;
+		}
+		items.remove(key);
+		return null;
+	}
+	
+	private void add(Object key, TreeItem<T> item) {
+		List<TreeItem<T>> list = items.get(key);
+		if (list == null) {
+			list = new ArrayList<TreeItem<T>>(1);
+			items.put(key, list);
+		}
+		for (TreeItem<T> existing : list) {
+			if (existing == item) {
+				return;
+			}
+		}
+		list.add(item);
+	}
+	
+	private void remove(Object key, TreeItem<T> item) {
+		List<TreeItem<T>> list = items.get(key);
+		if (list != null) {
+			Iterator<TreeItem<T>> iterator = list.iterator();
+			while (iterator.hasNext()) {
+				if (iterator.next() == item) {
+					iterator.remove();
+					break;
+				}
+			}
+			if (list.isEmpty()) {
+				items.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Stops listening to the tree
+	 */
+	public void dispose() {
+		for (Map.Entry<TreeItem<T>, ListChangeListener<TreeItem<T>>> entry : observed.entrySet()) {
+			entry.getKey().getChildren().removeListener(entry.getValue());
+		}
+		observed.clear();
+		items.clear();
+		frontier.clear();
+		pending.clear();
+	}
+
+	private void observe(TreeItem<T> item) {
+		ListChangeListener<TreeItem<T>> listener = new ListChangeListener<TreeItem<T>>() {
+			@Override
+			public void onChanged(ListChangeListener.Change<? extends TreeItem<T>> change) {
+				while (change.next()) {
+					if (change.wasRemoved()) {
+						for (TreeItem<T> removed : change.getRemoved()) {
+							forget(removed);
+						}
+					}
+					if (change.wasAdded()) {
+						for (TreeItem<T> added : change.getAddedSubList()) {
+							index(added);
+						}
+					}
+				}
+			}
+		};
+		observed.put(item, listener);
+		ObservableList<TreeItem<T>> children = item.getChildren();
+		children.addListener(listener);
+		for (TreeItem<T> child : children) {
+			index(child);
+		}
+	}
+
+	private void index(TreeItem<T> item) {
+		Object key = getKey(item);
+		if (key != null) {
+			add(key, item);
+		}
+		addToFrontier(item);
+	}
+
+	private void addToFrontier(TreeItem<T> item) {
+		if (!item.leafProperty().get() && !observed.containsKey(item) && pending.add(item)) {
+			frontier.add(item);
+		}
+	}
+
+	private void forget(TreeItem<T> item) {
+		Deque<TreeItem<T>> forgettable = new ArrayDeque<TreeItem<T>>();
+		forgettable.push(item);
+		while (!forgettable.isEmpty()) {
+			TreeItem<T> next = forgettable.pop();
+			Object key = getKey(next);
+			if (key != null) {
+				remove(key, next);
+			}
+			pending.remove(next);
+			ListChangeListener<TreeItem<T>> listener = observed.remove(next);
+			if (listener != null) {
+				next.getChildren().removeListener(listener);
+				for (TreeItem<T> child : next.getChildren()) {
+					forgettable.push(child);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A full scan of the tree, like TreeUtils.find()
+	 */
+	private TreeItem<T> scan(Object key) {
+		Deque<TreeItem<T>> stack = new ArrayDeque<TreeItem<T>>();
+		stack.push(root);
+		while (!stack.isEmpty()) {
+			List<TreeItem<T>> children = stack.pop().getChildren();
+			for (TreeItem<T> child : children) {
+				if (equals(key, getKey(child))) {
+					return child;
+				}
+			}
+			for (int i = children.size() - 1; i >= 0; i--) {
+				if (!children.get(i).leafProperty().get()) {
+					stack.push(children.get(i));
+				}
+			}
+		}
+		return null;
+	}
+
+	private Object getKey(TreeItem<T> item) {
+		return getKey(item.itemProperty().get());
+	}
+
+	private Object getKey(T value) {
+		if (value == null) {
+			return null;
+		}
+		return keyExtractor == null ? value : keyExtractor.call(value);
+	}
+
+	private static boolean equals(Object key, Object other) {
+		return key == null ? other == null : key.equals(other);
+	}
+}
@@ -0,0 +1,147 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import javafx.application.Platform;
+
+/**
+ * Collects the layout related work of a tree and executes it at most once per pulse
+ * For example expanding a hundred cells in one go only results in a single resize
+ *
+ * The work is executed in the order of the enum: first the next chunk of child cells, the running tasks and the pending changes to the cells, then the resize, the row positions, the linked refreshes, the autoscroll and finally the eviction of nodes
+ * The counters show how much of the requested work was actually executed, the difference was coalesced
+ */
+public class TreeScheduler<T> {
+
+	public enum Work {
+		MATERIALIZE,
+		TASKS,
+		CHANGES,
+		RESIZE,
+		POSITIONS,
+		REFRESH,
+		AUTOSCROLL,
+		EVICT
+	}
+	
+	private Tree<T> tree;
+	private Set<Work> scheduled = EnumSet.noneOf(Work.class);
+	private long [] requested = new long[Work.values().length], executed = new long[Work.values().length];
+	private boolean pulseScheduled;
+	
+	/**
+	 * Only the last autoscroll request counts
+	 */
+	private TreeCell<T> autoscrollTarget;
+	private boolean autoscrollFocus;
+	
+	TreeScheduler(Tree<T> tree) {
+		this.tree = tree;
+	}
+	
+	void schedule(Work work) {
+		requested[work.ordinal()]++;
+		scheduled.add(work);
+		if (!pulseScheduled) {
+			pulseScheduled = true;
+			Platform.runLater(pulse);
+		}
+	}
+	
+	void scheduleAutoscroll(TreeCell<T> target, boolean focus) {
+		autoscrollTarget = target;
+		autoscrollFocus = focus;
+		schedule(Work.AUTOSCROLL);
+	}
+	
+	private Runnable pulse = new Runnable() {
+		@Override
+		public void run() {
+			// anything scheduled while we are executing ends up in the next pulse
+			pulseScheduled = false;
+			for (Work work : Work.values()) {
+				if (scheduled.remove(work)) {
+					executed[work.ordinal()]++;
+					execute(work);
+				}
+			}
+		}
+	};
+	
+	private void execute(Work work) {
+		if (work == Work.MATERIALIZE) {
+			tree.materialize();
+		}
+		else if (work == Work.TASKS) {
+			tree.runTasks();
+		}
+		else if (work == Work.CHANGES) {
+			tree.applyDeferredChanges();
+		}
+		else if (work == Work.RESIZE) {
+			tree.resize();
+		}
+		else if (work == Work.POSITIONS) {
+			tree.updatePositions();
+		}
+		else if (work == Work.REFRESH) {
+			tree.refreshLinked();
+		}
+		else if (work == Work.EVICT) {
+			tree.evict();
+		}
+		else if (work == Work.AUTOSCROLL) {
+			TreeCell<T> target = autoscrollTarget;
+			autoscrollTarget = null;
+			if (target != null) {
+				tree.autoscrollNow(target, autoscrollFocus);
+			}
+		}
+	}
+	
+	/**
+	 * How many times the work was requested
+	 */
+	public long getRequested(Work work) {
+		return requested[work.ordinal()];
+	}
+	
+	/**
+	 * How many times the work was actually executed
+	 */
+	public long getExecuted(Work work) {
+		return executed[work.ordinal()];
+	}
+	
+	/**
+	 * How many requests were absorbed by another execution
+	 */
+	public long getCoalesced(Work work) {
+		return getRequested(work) - getExecuted(work) - (scheduled.contains(work) ? 1 : 0);
+	}
+	
+	public void resetCounters() {
+		for (int i = 0; i < requested.length; i++) {
+			requested[i] = 0;
+			executed[i] = 0;
+		}
+	}
+}
@@ -104,11 +104,10 @@ public class TreeSelectionModel<T> extends MultipleSelectionModel<TreeCell<T>> {
 		if (selectedItems.size() == 1) {
 			TreeCell<T> next = getNext(selectedItems.get(0), false);
 			if (next != null) {
-				TreeCell<?> previousSelection = selectedItems.get(0);
 				clearSelection();
 				select(next);
 				if (next.getTree().isAutoscrollOnSelect()) {
-					JFXUtils.scrollDown(previousSelection);
+					next.getTree().scrollIntoView(next);
 				}
 			}
 		}
@@ -118,11 +117,10 @@ public class TreeSelectionModel<T> extends MultipleSelectionModel<TreeCell<T>> {
 		if (selectedItems.size() == 1) {
 			TreeCell<T> previous = getPrevious(selectedItems.get(0), false);
 			if (previous != null) {
-				TreeCell<?> previousSelection = selectedItems.get(0);
 				clearSelection();
 				select(previous);
 				if (previous.getTree().isAutoscrollOnSelect()) {
-					JFXUtils.scrollUp(previousSelection);
+					previous.getTree().scrollIntoView(previous);
 				}
 			}
 		}
@@ -135,6 +133,13 @@ public class TreeSelectionModel<T> extends MultipleSelectionModel<TreeCell<T>> {
 	 * @return
 	 */
 	private TreeCell<T> getNext(TreeCell<T> current, boolean forceDepth) {
+		// use the row index if the cell is in it
+		if (!forceDepth) {
+			int row = current.getTree().getRow(current);
+			if (row >= 0) {
+				return current.getTree().getCellAt(row + 1);
+			}
+		}
 		// not a leaf and it's expanded, go inside it
 		if (!forceDepth && !current.getItem().leafProperty().getValue() && current.getItem().getChildren().size() > 0 && current.expandedProperty().getValue())
 			return current.getCell(current.getItem().getChildren().get(0));
@@ -157,6 +162,12 @@ public class TreeSelectionModel<T> extends MultipleSelectionModel<TreeCell<T>> {
 	}
 	
 	private TreeCell<T> getPrevious(TreeCell<T> current, boolean forceDepth) {
+		if (!forceDepth) {
+			int row = current.getTree().getRow(current);
+			if (row >= 0) {
+				return current.getTree().getCellAt(row - 1);
+			}
+		}
 		TreeCell<T> parent = current.getParent();
 		if (parent != null) {
 			TreeItem<T> parentItem = parent.getItem();
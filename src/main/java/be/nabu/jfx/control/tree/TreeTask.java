@@ -0,0 +1,188 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Walks (part of) the tree breadth-first without recursion, so deep models can't overflow the stack
+ * It can be run in one go or in slices spread over multiple pulses, in which case it can be cancelled and its progress can be followed
+ */
+public class TreeTask<T> {
+
+	interface Visitor<T> {
+		/**
+		 * Processes the cell, the cells that should be processed next are added to the task
+		 */
+		public void visit(TreeTask<T> task, TreeCell<T> cell, int depth);
+	}
+	
+	private Visitor<T> visitor;
+	private Deque<TreeCell<T>> cells = new ArrayDeque<TreeCell<T>>();
+	private Deque<Integer> depths = new ArrayDeque<Integer>();
+	private volatile boolean cancelled;
+	private boolean done;
+	private int processed;
+	private Runnable onFinished;
+	private long sliceStarted, sliceBudget;
+	private boolean revisited;
+	
+	TreeTask(TreeCell<T> start, Visitor<T> visitor) {
+		this.visitor = visitor;
+		add(start, 0);
+	}
+	
+	/**
+	 * Expands the cell and its children up to the given depth (0 only expands the cell itself)
+	 * The child cells are created in chunks within the budget of the slice before the cell is expanded, so the expansion does not have to create them all at once
+	 */
+	static <T> TreeTask<T> expandAll(TreeCell<T> cell, final int count) {
+		return new TreeTask<T>(cell, new Visitor<T>() {
+			@Override
+			public void visit(TreeTask<T> task, TreeCell<T> cell, int depth) {
+				if (!cell.materializeChildren(task.getSliceBudget())) {
+					task.revisit(cell, depth);
+					return;
+				}
+				cell.expandedProperty().set(true);
+				if (depth < count) {
+					for (TreeCell<T> child : cell.getChildCells()) {
+						task.add(child, depth + 1);
+					}
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Initializes the children of the cell, if recursive also their children and so on
+	 * Every cell is initialized in its own visit and its child cells are created in chunks so a slice stays within its budget
+	 */
+	static <T> TreeTask<T> forceLoad(TreeCell<T> cell, final boolean recursive) {
+		return new TreeTask<T>(cell, new Visitor<T>() {
+			@Override
+			public void visit(TreeTask<T> task, TreeCell<T> cell, int depth) {
+				// without recursion, the children only need to be initialized themselves
+				if (depth > 0 && !recursive) {
+					cell.initialize();
+				}
+				else if (!cell.materializeChildren(task.getSliceBudget())) {
+					task.revisit(cell, depth);
+				}
+				else {
+					for (TreeCell<T> child : cell.getChildCells()) {
+						task.add(child, depth + 1);
+					}
+				}
+			}
+		});
+	}
+	
+	void add(TreeCell<T> cell, int depth) {
+		cells.add(cell);
+		depths.add(depth);
+	}
+	
+	/**
+	 * The cell could not be finished within the budget of the slice, it is the first one to be visited again
+	 */
+	void revisit(TreeCell<T> cell, int depth) {
+		cells.addFirst(cell);
+		depths.addFirst(depth);
+		revisited = true;
+	}
+	
+	/**
+	 * The time (in ms) that is left in the current slice, 0 if the slice is unlimited
+	 */
+	long getSliceBudget() {
+		if (sliceBudget <= 0) {
+			return 0;
+		}
+		return Math.max(1, sliceBudget - (System.currentTimeMillis() - sliceStarted));
+	}
+	
+	/**
+	 * Processes cells until the budget (in ms) is spent, returns true if there is nothing left to do
+	 * The visits themselves check the budget as well so a slice does not run (much) longer than the budget, even for cells with a lot of children
+	 * A budget of 0 or less runs until the task is done, which blocks the fx thread for as long as that takes
+	 */
+	boolean run(long budget) {
+		sliceStarted = System.currentTimeMillis();
+		sliceBudget = budget;
+		while (!cancelled && !cells.isEmpty()) {
+			revisited = false;
+			visitor.visit(this, cells.poll(), depths.poll());
+			if (!revisited) {
+				processed++;
+			}
+			if (budget > 0 && System.currentTimeMillis() - sliceStarted >= budget && !cells.isEmpty()) {
+				return false;
+			}
+		}
+		if (!done) {
+			done = true;
+			cells.clear();
+			depths.clear();
+			if (onFinished != null) {
+				onFinished.run();
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * The task stops at the next cell, the cells that were already processed stay that way
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * Whether the task has stopped, either because it is finished or because it was cancelled
+	 */
+	public boolean isDone() {
+		return done;
+	}
+	
+	/**
+	 * The amount of cells that have been processed so far
+	 */
+	public int getProcessed() {
+		return processed;
+	}
+	
+	/**
+	 * The amount of cells that are known to still need processing, this grows as the task discovers the tree
+	 */
+	public int getRemaining() {
+		return cells.size();
+	}
+	
+	/**
+	 * Called on the fx thread once the task is done (also when it is cancelled)
+	 */
+	public void setOnFinished(Runnable onFinished) {
+		this.onFinished = onFinished;
+	}
+}
@@ -20,10 +20,14 @@ package be.nabu.jfx.control.tree;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 
 public class TreeUtils {
@@ -65,27 +69,79 @@ public class TreeUtils {
 				result.add(creator.create(item, child));
 			}
 		}
-		item.getChildren().setAll(result);
+		update(item.getChildren(), result);
 		return result;
 	}
 	
 	public static <T> List<TreeItem<T>> refreshChildren(TreeItem<T> item, Collection<TreeItem<T>> children) {
 		List<TreeItem<T>> result = new ArrayList<TreeItem<T>>();
-		ObservableList<TreeItem<T>> currentChildren = item.getChildren();
+		// the first occurrence of each current child, this is what indexOf() would find
+		Map<TreeItem<T>, TreeItem<T>> currentChildren = new HashMap<TreeItem<T>, TreeItem<T>>();
+		for (TreeItem<T> child : item.getChildren()) {
+			if (!currentChildren.containsKey(child)) {
+				currentChildren.put(child, child);
+			}
+		}
 		// then we loop over the children to make the new list
 		for (TreeItem<T> child : children) {
-			int index = currentChildren.indexOf(child);
-			if (index >= 0) {
-				result.add(currentChildren.get(index));
+			TreeItem<T> current = currentChildren.get(child);
+			result.add(current != null ? current : child);
+		}
+		update(item.getChildren(), result);
+		return result;
+	}
+	
+	/**
+	 * Updates the list with as little changes as possible so listeners are only triggered for actual differences:
+	 * 		> if nothing changed, the list is not touched
+	 * 		> if only the order changed, a single permutation is done
+	 * 		> otherwise only the removed, added and moved children are updated
+	 * In the last case every contiguous run of changes is a separate change event, to sync the cells only once, update the children in a Tree.batch() or enable coalesced changes on the tree
+	 */
+	private static <T> void update(ObservableList<TreeItem<T>> list, List<TreeItem<T>> target) {
+		if (list.size() == target.size()) {
+			boolean identical = true;
+			for (int i = 0; i < target.size(); i++) {
+				if (list.get(i) != target.get(i)) {
+					identical = false;
+					break;
+				}
 			}
-			else {
-				result.add(child);
+			if (identical) {
+				return;
 			}
 		}
-		item.getChildren().setAll(result);
-		return result;
+		final Map<TreeItem<T>, Integer> targetIndexes = new IdentityHashMap<TreeItem<T>, Integer>();
+		for (int i = 0; i < target.size(); i++) {
+			// the diff relies on the elements being unique
+			if (targetIndexes.put(target.get(i), i) != null) {
+				list.setAll(target);
+				return;
+			}
+		}
+		Set<TreeItem<T>> current = Collections.newSetFromMap(new IdentityHashMap<TreeItem<T>, Boolean>());
+		for (TreeItem<T> child : list) {
+			if (!current.add(child)) {
+				list.setAll(target);
+				return;
+			}
+		}
+		if (current.size() == targetIndexes.size() && targetIndexes.keySet().containsAll(current)) {
+			FXCollections.sort(list, new Comparator<TreeItem<T>>() {
+				@Override
+				public int compare(TreeItem<T> o1, TreeItem<T> o2) {
+					return targetIndexes.get(o1) - targetIndexes.get(o2);
+				}
+			});
+		}
+		else {
+			ListDiff.apply(list, target);
+		}
 	}
 	
+	/**
+	 * Scans the entire hierarchy (loading all the children along the way), use a TreeItemIndex for repeated lookups in large models
+	 */
 	public static <T> TreeItem<T> find(TreeItem<T> item, T value) {
 		for (TreeItem<T> child : item.getChildren()) {
 			if (child.itemProperty().get() != null && child.itemProperty().get().equals(value)) {
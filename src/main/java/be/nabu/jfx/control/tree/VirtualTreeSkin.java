@@ -0,0 +1,274 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.scene.Node;
+import javafx.scene.control.ScrollPane;
+import javafx.scene.control.SkinBase;
+import javafx.scene.layout.Region;
+
+/**
+ * Renders the tree as a flat list of rows, only the rows that intersect with the viewport are added to the scene graph
+ * The viewport is determined by the enclosing scrollpane (if any) and the scene
+ * The rows in the viewport are looked up in the row index of the cells, the tree is never flattened as a whole
+ *
+ * Each row is the node of the treecell, in virtualized mode that node does not contain the nodes of the children
+ */
+public class VirtualTreeSkin<T> extends SkinBase<Tree<T>> {
+
+	/**
+	 * The nodes that are currently in the scene graph
+	 */
+	private Map<Node, TreeCell<T>> mounted = new IdentityHashMap<Node, TreeCell<T>>();
+
+	private boolean syncing;
+	
+	/**
+	 * The widest row that has been laid out, the preferred width does not shrink while scrolling so the content does not jump
+	 */
+	private double widestRow;
+
+	private ScrollPane scrollParent;
+
+	private InvalidationListener viewportListener = new InvalidationListener() {
+		@Override
+		public void invalidated(Observable observable) {
+			getSkinnable().requestLayout();
+		}
+	};
+
+	private ChangeListener<TreeItem<T>> rootListener = new ChangeListener<TreeItem<T>>() {
+		@Override
+		public void changed(ObservableValue<? extends TreeItem<T>> arg0, TreeItem<T> oldRoot, TreeItem<T> newRoot) {
+			widestRow = 0;
+			invalidateRows();
+		}
+	};
+	
+	private Runnable rowsInvalidated = new Runnable() {
+		@Override
+		public void run() {
+			invalidateRows();
+		}
+	};
+	
+	private ChangeListener<ScrollPane> scrollParentListener = new ChangeListener<ScrollPane>() {
+		@Override
+		public void changed(ObservableValue<? extends ScrollPane> arg0, ScrollPane oldParent, ScrollPane newParent) {
+			updateScrollParent();
+		}
+	};
+	
+	public VirtualTreeSkin(Tree<T> tree) {
+		super(tree);
+		initialize();
+	}
+
+	private void initialize() {
+		final Tree<T> tree = getSkinnable();
+		tree.setRowsInvalidated(rowsInvalidated);
+		tree.rootProperty().addListener(rootListener);
+		tree.rowHeightProperty().addListener(viewportListener);
+		tree.spacingProperty().addListener(viewportListener);
+		// the tree keeps track of the scrollpane it is in
+		tree.scrollParentProperty().addListener(scrollParentListener);
+		updateScrollParent();
+	}
+
+	private void updateScrollParent() {
+		ScrollPane scrollParent = getSkinnable().getScrollParent();
+		if (scrollParent != this.scrollParent) {
+			if (this.scrollParent != null) {
+				this.scrollParent.vvalueProperty().removeListener(viewportListener);
+				this.scrollParent.hvalueProperty().removeListener(viewportListener);
+				this.scrollParent.viewportBoundsProperty().removeListener(viewportListener);
+			}
+			this.scrollParent = scrollParent;
+			if (scrollParent != null) {
+				scrollParent.vvalueProperty().addListener(viewportListener);
+				scrollParent.hvalueProperty().addListener(viewportListener);
+				scrollParent.viewportBoundsProperty().addListener(viewportListener);
+			}
+			getSkinnable().requestLayout();
+		}
+	}
+
+	private void invalidateRows() {
+		// syncing the children of the rows in the viewport can trigger invalidations, these are already taken into account
+		if (!syncing) {
+			getSkinnable().requestLayout();
+		}
+	}
+
+	/**
+	 * The amount of rows that are actually shown
+	 */
+	protected int getRowCount() {
+		Tree<T> tree = getSkinnable();
+		TreeCell<T> rootCell = tree.getRootCell();
+		if (rootCell == null) {
+			return 0;
+		}
+		// make sure the children of the root are in the index
+		if (rootCell.expandedProperty().get()) {
+			rootCell.getChildCells();
+		}
+		return Math.max(0, tree.getRowCount() - tree.getFirstRow());
+	}
+	
+	/**
+	 * Loads the given rows: cells that were expanded outside of the load window catch up on the work they postponed
+	 * The cells may also have children that changed without the cell knowing (if the tree autodetects changes)
+	 */
+	protected void syncRows(int first, int last) {
+		Tree<T> tree = getSkinnable();
+		int offset = tree.getFirstRow();
+		tree.setLoadWindow(first + offset, last + offset);
+		syncing = true;
+		try {
+			// loading a cell can add rows after it, those are picked up as we go
+			for (int i = first; i <= last; i++) {
+				TreeCell<T> cell = tree.getCellAt(i + offset);
+				if (cell == null) {
+					break;
+				}
+				cell.loadDeferred();
+				if (cell.expandedProperty().get() && !cell.getItem().leafProperty().get()) {
+					cell.getChildCells();
+				}
+			}
+		}
+		finally {
+			syncing = false;
+		}
+	}
+
+	/**
+	 * The part of the tree (in local coordinates) that can actually be seen
+	 */
+	protected Bounds getViewport() {
+		Tree<T> tree = getSkinnable();
+		Bounds viewport = tree.getLayoutBounds();
+		if (scrollParent != null) {
+			viewport = intersect(viewport, tree.sceneToLocal(scrollParent.localToScene(scrollParent.getLayoutBounds())));
+		}
+		if (tree.getScene() != null) {
+			viewport = intersect(viewport, tree.sceneToLocal(new BoundingBox(0, 0, tree.getScene().getWidth(), tree.getScene().getHeight())));
+		}
+		return viewport;
+	}
+
+	private static Bounds intersect(Bounds bounds, Bounds other) {
+		if (other == null) {
+			return bounds;
+		}
+		double minX = Math.max(bounds.getMinX(), other.getMinX());
+		double minY = Math.max(bounds.getMinY(), other.getMinY());
+		double maxX = Math.min(bounds.getMaxX(), other.getMaxX());
+		double maxY = Math.min(bounds.getMaxY(), other.getMaxY());
+		return new BoundingBox(minX, minY, Math.max(0, maxX - minX), Math.max(0, maxY - minY));
+	}
+
+	@Override
+	protected void layoutChildren(double contentX, double contentY, double contentWidth, double contentHeight) {
+		Tree<T> tree = getSkinnable();
+		double rowHeight = tree.rowHeightProperty().get();
+		double spacing = tree.spacingProperty().get();
+		int overscan = tree.getOverscan();
+		Bounds viewport = getViewport();
+		// the rows just outside of the viewport are added as well so they are ready when scrolled into view
+		int first = Math.max(0, (int) Math.floor((viewport.getMinY() - contentY) / rowHeight) - overscan);
+		syncRows(first, Math.min(getRowCount() - 1, (int) Math.ceil((viewport.getMaxY() - contentY) / rowHeight) + overscan));
+		// the sync may have changed the amount of rows
+		int last = Math.min(getRowCount() - 1, (int) Math.ceil((viewport.getMaxY() - contentY) / rowHeight) + overscan);
+		int offset = tree.getFirstRow();
+
+		boolean widened = false;
+		Map<Node, TreeCell<T>> visible = new IdentityHashMap<Node, TreeCell<T>>();
+		for (int i = first; i <= last; i++) {
+			TreeCell<T> cell = tree.getCellAt(i + offset);
+			if (cell == null) {
+				break;
+			}
+			Region node = cell.getNode();
+			visible.put(node, cell);
+			if (!mounted.containsKey(node)) {
+				getChildren().add(node);
+				mounted.put(node, cell);
+			}
+			double x = contentX + (cell.getIndent() * spacing);
+			double prefWidth = node.prefWidth(rowHeight);
+			if (x - contentX + prefWidth > widestRow) {
+				widestRow = x - contentX + prefWidth;
+				widened = true;
+			}
+			node.resizeRelocate(x, contentY + (i * rowHeight), Math.max(contentX + contentWidth - x, prefWidth), rowHeight);
+		}
+		// remove the nodes that are no longer in the viewport
+		Iterator<Node> iterator = mounted.keySet().iterator();
+		while (iterator.hasNext()) {
+			Node node = iterator.next();
+			if (!visible.containsKey(node)) {
+				getChildren().remove(node);
+				iterator.remove();
+			}
+		}
+		// the parent has to pick up the new preferred width
+		if (widened) {
+			getSkinnable().requestLayout();
+		}
+	}
+
+	@Override
+	protected double computePrefHeight(double width, double topInset, double rightInset, double bottomInset, double leftInset) {
+		return topInset + (getRowCount() * getSkinnable().rowHeightProperty().get()) + bottomInset;
+	}
+
+	@Override
+	protected double computePrefWidth(double height, double topInset, double rightInset, double bottomInset, double leftInset) {
+		return leftInset + widestRow + rightInset;
+	}
+
+	@Override
+	public void dispose() {
+		if (scrollParent != null) {
+			scrollParent.vvalueProperty().removeListener(viewportListener);
+			scrollParent.hvalueProperty().removeListener(viewportListener);
+			scrollParent.viewportBoundsProperty().removeListener(viewportListener);
+			scrollParent = null;
+		}
+		getSkinnable().scrollParentProperty().removeListener(scrollParentListener);
+		getSkinnable().rootProperty().removeListener(rootListener);
+		getSkinnable().rowHeightProperty().removeListener(viewportListener);
+		getSkinnable().spacingProperty().removeListener(viewportListener);
+		// when switching skins, the new one is created before the old one is disposed
+		getSkinnable().removeRowsInvalidated(rowsInvalidated);
+		mounted.clear();
+		super.dispose();
+	}
+}
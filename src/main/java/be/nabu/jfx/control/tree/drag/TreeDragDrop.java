@@ -79,8 +79,8 @@ public class TreeDragDrop {
 			@SuppressWarnings("unchecked")
 			@Override
 			public void handle(MouseEvent event) {
-				dragSource = (TreeCell<?>) ((Node) event.getTarget()).getUserData();
-				if (dragSource.getTree().getDragListener().canDrag(dragSource)) {
+				dragSource = getTargetCell(tree, event.getTarget(), event.getSceneX(), event.getSceneY());
+				if (dragSource != null && dragSource.getTree().getDragListener().canDrag(dragSource)) {
 					clipboard = new ClipboardContent();
 					dragboard = dragSource.getTree().startDragAndDrop(dragSource.getTree().getDragListener().getTransferMode());
 					DataFormat format = getDataFormat(dragSource.getTree().getDragListener().getDataType(dragSource));
@@ -144,8 +144,8 @@ public class TreeDragDrop {
 			@SuppressWarnings({ "unchecked", "rawtypes" })
 			@Override
 			public void handle(DragEvent event) {
-				TreeCell<?> target = (TreeCell<?>) ((Node) event.getTarget()).getUserData();
-				if (dragSource != null) {
+				TreeCell<?> target = getTargetCell(tree, event.getTarget(), event.getSceneX(), event.getSceneY());
+				if (dragSource != null && target != null) {
 					for (TreeDropListener listener : target.getTree().getDropListeners()) {
 						if (listener.canDrop(dragSource.getTree().getDragListener().getDataType(dragSource), target, dragSource, dragSource.getTree().getDragListener().getTransferMode())) {
 							event.acceptTransferModes(dragSource.getTree().getDragListener().getTransferMode());
@@ -162,12 +162,14 @@ public class TreeDragDrop {
 			@Override
 			public void handle(DragEvent event) {
 				if (!event.isConsumed() && !event.isDropCompleted() && dragSource != null && dragSource.getTree() != null && dragSource.getTree().getDragListener() != null) {
-					TreeCell<?> target = (TreeCell<?>) ((Node) event.getTarget()).getUserData();
+					TreeCell<?> target = getTargetCell(tree, event.getTarget(), event.getSceneX(), event.getSceneY());
 					// drop it on the first one that accepts
-					for (TreeDropListener listener : target.getTree().getDropListeners()) {
-						if (listener.canDrop(dragSource.getTree().getDragListener().getDataType(dragSource), target, dragSource, dragSource.getTree().getDragListener().getTransferMode())) {
-							listener.drop(dragSource.getTree().getDragListener().getDataType(dragSource), target, dragSource, dragSource.getTree().getDragListener().getTransferMode());
-							break;
+					if (target != null) {
+						for (TreeDropListener listener : target.getTree().getDropListeners()) {
+							if (listener.canDrop(dragSource.getTree().getDragListener().getDataType(dragSource), target, dragSource, dragSource.getTree().getDragListener().getTransferMode())) {
+								listener.drop(dragSource.getTree().getDragListener().getDataType(dragSource), target, dragSource, dragSource.getTree().getDragListener().getTransferMode());
+								break;
+							}
 						}
 					}
 					dragSource.getTree().getDragListener().stopDrag(dragSource, true);
@@ -178,6 +180,19 @@ public class TreeDragDrop {
 		});
 	}
 	
+	/**
+	 * The cell that is targeted by an event, a rendered tree has no nodes for its cells so the position of the event determines the cell
+	 */
+	private static TreeCell<?> getTargetCell(Tree<?> tree, Object target, double sceneX, double sceneY) {
+		if (target instanceof Node && ((Node) target).getUserData() instanceof TreeCell) {
+			return (TreeCell<?>) ((Node) target).getUserData();
+		}
+		else if (tree.isRendered()) {
+			return tree.getCellAtY(tree.sceneToLocal(sceneX, sceneY).getY());
+		}
+		return null;
+	}
+	
 	public static String getPath(TreeItem<?> item) {
 		String name = item.getName();
 		while (item.getParent() != null) {
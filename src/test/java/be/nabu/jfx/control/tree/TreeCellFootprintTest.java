@@ -0,0 +1,151 @@
+/*
+* Copyright (C) 2015 Alexander Verbruggen
+*
+* This program is free software: you can redistribute it and/or modify
+* it under the terms of the GNU Lesser General Public License as published by
+* the Free Software Foundation, either version 3 of the License, or
+* (at your option) any later version.
+*
+* This program is distributed in the hope that it will be useful,
+* but WITHOUT ANY WARRANTY; without even the implied warranty of
+* MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+* GNU Lesser General Public License for more details.
+*
+* You should have received a copy of the GNU Lesser General Public License
+* along with this program. If not, see <https://www.gnu.org/licenses/>.
+*/
+
+package be.nabu.jfx.control.tree;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.ObjectProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.beans.property.SimpleObjectProperty;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.Node;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verifies the heap budget of a cell that has never been shown, as documented on TreeCell
+ */
+public class TreeCellFootprintTest {
+
+	/**
+	 * The documented budget (in bytes) of a cell that has never been shown
+	 */
+	private static final long BUDGET = 1024;
+	
+	private static final int CELLS = 100000;
+	
+	@BeforeClass
+	public static void startToolkit() {
+		try {
+			Platform.startup(new Runnable() {
+				@Override
+				public void run() {
+					// nothing to do
+				}
+			});
+		}
+		catch (IllegalStateException e) {
+			// already started
+		}
+		catch (RuntimeException e) {
+			// e.g. no display available
+			Assume.assumeNoException(e);
+		}
+	}
+	
+	@Test
+	public void testNeverShownCell() throws InterruptedException {
+		Tree<String> tree = new Tree<String>();
+		tree.setVirtualized(true);
+		SimpleTreeItem root = new SimpleTreeItem(null, "root", false);
+		tree.rootProperty().set(root);
+		
+		// the items are not part of the budget of the cell
+		SimpleTreeItem [] items = new SimpleTreeItem[CELLS];
+		for (int i = 0; i < CELLS; i++) {
+			items[i] = new SimpleTreeItem(root, "child" + i, i % 2 == 0);
+		}
+		MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+		long before = getUsedHeap(memory);
+		// the cells are created the way a parent creates them, they are registered on the tree but never initialized or shown
+		Object [] cells = new Object[CELLS];
+		for (int i = 0; i < CELLS; i++) {
+			cells[i] = new TreeCell<String>(tree, items[i], tree.getRootCell());
+		}
+		long after = getUsedHeap(memory);
+		long perCell = (after - before) / cells.length;
+		assertTrue("A cell that has never been shown takes " + perCell + " bytes, the budget is " + BUDGET, perCell < BUDGET);
+	}
+	
+	private static long getUsedHeap(MemoryMXBean memory) throws InterruptedException {
+		// a single gc is only a request, give it a few chances to settle
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+	
+	private static class SimpleTreeItem implements TreeItem<String> {
+		
+		private BooleanProperty editable = new SimpleBooleanProperty(false), leaf = new SimpleBooleanProperty();
+		private ObjectProperty<String> item = new SimpleObjectProperty<String>();
+		private ObjectProperty<Node> graphic = new SimpleObjectProperty<Node>();
+		private ObservableList<TreeItem<String>> children = FXCollections.observableArrayList();
+		private TreeItem<String> parent;
+		private String name;
+		
+		public SimpleTreeItem(TreeItem<String> parent, String name, boolean leaf) {
+			this.parent = parent;
+			this.name = name;
+			this.leaf.set(leaf);
+			this.item.set(name);
+		}
+		
+		@Override
+		public void refresh() {
+			// nothing to refresh
+		}
+		@Override
+		public BooleanProperty editableProperty() {
+			return editable;
+		}
+		@Override
+		public BooleanProperty leafProperty() {
+			return leaf;
+		}
+		@Override
+		public ObjectProperty<String> itemProperty() {
+			return item;
+		}
+		@Override
+		public ObjectProperty<Node> graphicProperty() {
+			return graphic;
+		}
+		@Override
+		public ObservableList<TreeItem<String>> getChildren() {
+			return children;
+		}
+		@Override
+		public TreeItem<String> getParent() {
+			return parent;
+		}
+		@Override
+		public String getName() {
+			return name;
+		}
+	}
+}